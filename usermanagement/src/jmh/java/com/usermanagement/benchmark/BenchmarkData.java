@@ -0,0 +1,106 @@
+package com.usermanagement.benchmark;
+
+import com.usermanagement.model.User;
+import com.usermanagement.service.PasswordHasher;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic users and upload sheets shared by the benchmarks
+ */
+public final class BenchmarkData {
+    private static final String[] FIRST_NAMES = {
+            "Alice", "Bruno", "Chitra", "Deepak", "Elena", "Farid", "Grace", "Hiro",
+            "Ines", "Jamal", "Kavya", "Liam", "Maya", "Nikhil", "Olga", "Priya"
+    };
+    private static final String[] LAST_NAMES = {
+            "Anand", "Brooks", "Castro", "Dubois", "Evans", "Fischer", "Gupta", "Hughes",
+            "Iyer", "Jensen", "Kowalski", "Lopez", "Menon", "Novak", "Okafor", "Patel"
+    };
+    private static final String[] GENDERS = {"Male", "Female", "Other"};
+
+    // Already a hash, so stores keep it as is instead of running PBKDF2 per user
+    public static final String PASSWORD_HASH = PasswordHasher.hash("benchmark-password", 1000);
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Valid users with unique emails; the same count always yields the same users
+     */
+    public static List<User> users(int count) {
+        Random random = new Random(42);
+        List<User> users = new ArrayList<>(count);
+
+        for (int i = 0; i < count; i++) {
+            String first = FIRST_NAMES[random.nextInt(FIRST_NAMES.length)];
+            String last = LAST_NAMES[random.nextInt(LAST_NAMES.length)];
+            User user = new User(first + " " + last, dob(random),
+                    first.toLowerCase() + "." + last.toLowerCase() + i + "@example.com", PASSWORD_HASH,
+                    String.valueOf(9000000000L + i), GENDERS[random.nextInt(GENDERS.length)],
+                    (i % 500 + 1) + " Benchmark Street, Springfield");
+            user.setId(String.valueOf(i + 1));
+            users.add(user);
+        }
+
+        return users;
+    }
+
+    /**
+     * Write an upload sheet in the template's column order to a temporary file
+     */
+    public static File writeSheet(int rows) throws IOException {
+        File file = File.createTempFile("benchmark-users-" + rows + "-", ".xlsx");
+        file.deleteOnExit();
+        SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+
+        // Streaming writer keeps only a window of rows in memory
+        SXSSFWorkbook workbook = new SXSSFWorkbook(1000);
+        try (OutputStream out = new FileOutputStream(file)) {
+            Sheet sheet = workbook.createSheet("Users");
+            String[] header = {"Name", "DOB", "Email", "Password", "Phone", "Gender", "Address"};
+            Row headerRow = sheet.createRow(0);
+            for (int i = 0; i < header.length; i++) {
+                headerRow.createCell(i).setCellValue(header[i]);
+            }
+
+            int rowNum = 1;
+            for (User user : users(rows)) {
+                Row row = sheet.createRow(rowNum++);
+                row.createCell(0).setCellValue(user.getName());
+                row.createCell(1).setCellValue(dateFormat.format(user.getDob()));
+                row.createCell(2).setCellValue(user.getEmail());
+                row.createCell(3).setCellValue("password" + rowNum);
+                row.createCell(4).setCellValue(user.getPhone());
+                row.createCell(5).setCellValue(user.getGender());
+                row.createCell(6).setCellValue(user.getAddress());
+            }
+
+            workbook.write(out);
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+
+        return file;
+    }
+
+    private static Date dob(Random random) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.set(1950 + random.nextInt(55), random.nextInt(12), 1 + random.nextInt(28), 0, 0, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTime();
+    }
+}
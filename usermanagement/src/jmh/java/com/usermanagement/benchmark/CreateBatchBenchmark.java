@@ -0,0 +1,58 @@
+package com.usermanagement.benchmark;
+
+import com.usermanagement.model.User;
+import com.usermanagement.repository.InMemoryUserRepository;
+import com.usermanagement.service.DatastoreService;
+import com.usermanagement.service.EmailIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time one import batch through createBatch on the in-memory store. With plain
+ * passwords this is dominated by PBKDF2 on the import pool; compare with hashed
+ * ones to see the store's own cost, and tune password.importThreads and
+ * password.importIterations with -Djmh.args="CreateBatchBenchmark -jvmArgsAppend ..."
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CreateBatchBenchmark {
+
+    @Param({"plain", "hashed"})
+    private String passwords;
+
+    private InMemoryUserRepository repository;
+    private List<User> template;
+    private List<User> batch;
+    private int round;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        repository = InMemoryUserRepository.getInstance();
+        template = BenchmarkData.users(DatastoreService.BATCH_SIZE);
+    }
+
+    // Every batch gets fresh emails, so no user is skipped as taken
+    @Setup(Level.Invocation)
+    public void nextBatch() {
+        round++;
+        batch = new ArrayList<>(template.size());
+        for (User user : template) {
+            User copy = new User(user.getName(), user.getDob(), "batch" + round + "." + user.getEmail(),
+                    "plain".equals(passwords) ? "password-" + user.getPhone() : user.getPassword(),
+                    user.getPhone(), user.getGender(), user.getAddress());
+            batch.add(copy);
+        }
+    }
+
+    @Benchmark
+    public EmailIndex createBatch() {
+        return repository.createBatch(batch);
+    }
+}
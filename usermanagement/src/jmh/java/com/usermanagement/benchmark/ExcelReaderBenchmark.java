@@ -0,0 +1,52 @@
+package com.usermanagement.benchmark;
+
+import com.usermanagement.model.User;
+import com.usermanagement.util.ExcelReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse generated upload sheets with the streaming reader, both into a list
+ * and row by row from disk as the import jobs do
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class ExcelReaderBenchmark {
+
+    @Param({"1000", "100000"})
+    private int rows;
+
+    private File sheet;
+
+    @Setup(Level.Trial)
+    public void writeSheet() throws Exception {
+        sheet = BenchmarkData.writeSheet(rows);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteSheet() {
+        sheet.delete();
+    }
+
+    @Benchmark
+    public List<User> readUsersFromExcel() throws Exception {
+        try (InputStream in = new FileInputStream(sheet)) {
+            return ExcelReader.readUsersFromExcel(in);
+        }
+    }
+
+    @Benchmark
+    public int readRowsFromFile(Blackhole blackhole) throws Exception {
+        return ExcelReader.readRows(sheet, (user, rowNumber) -> blackhole.consume(user));
+    }
+}
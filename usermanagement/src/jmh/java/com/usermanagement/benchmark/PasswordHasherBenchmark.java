@@ -0,0 +1,27 @@
+package com.usermanagement.benchmark;
+
+import com.usermanagement.service.PasswordHasher;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time one PBKDF2 hash at several costs, to choose password.iterations
+ * for the instance class the app runs on
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PasswordHasherBenchmark {
+
+    @Param({"100000", "210000", "310000", "600000"})
+    private int iterations;
+
+    @Benchmark
+    public String hash() {
+        return PasswordHasher.hash("correct horse battery", iterations);
+    }
+}
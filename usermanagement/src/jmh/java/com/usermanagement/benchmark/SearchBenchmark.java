@@ -0,0 +1,56 @@
+package com.usermanagement.benchmark;
+
+import com.usermanagement.model.User;
+import com.usermanagement.model.UserPage;
+import com.usermanagement.repository.InMemoryUserRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search and lookups through the in-memory store, so the numbers cover the
+ * index and page assembly without any Datastore round trips
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class SearchBenchmark {
+
+    @Param({"100000"})
+    private int users;
+
+    @Param({"priya", "okafor", "9000012", "example.com"})
+    private String term;
+
+    private InMemoryUserRepository repository;
+    private String email;
+
+    @Setup(Level.Trial)
+    public void load() {
+        repository = InMemoryUserRepository.getInstance();
+        repository.clear();
+        repository.createUsers(BenchmarkData.users(users));
+
+        // Build the index outside the measurement
+        repository.searchUsers(term, 1, null);
+        email = repository.getUsersPage(1, null).getUsers().get(0).getEmail();
+    }
+
+    @Benchmark
+    public UserPage searchFirstPage() {
+        return repository.searchUsers(term, 50, null);
+    }
+
+    @Benchmark
+    public UserPage listFirstPage() {
+        return repository.getUsersPage(50, null);
+    }
+
+    @Benchmark
+    public User getUserByEmail() {
+        return repository.getUserByEmail(email);
+    }
+}
@@ -0,0 +1,36 @@
+package com.usermanagement.benchmark;
+
+import com.google.gson.Gson;
+import com.usermanagement.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gson serialization of user lists as the list and export endpoints write them
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserJsonBenchmark {
+
+    @Param({"50", "500", "5000"})
+    private int size;
+
+    private final Gson gson = new Gson();
+    private List<User> users;
+
+    @Setup(Level.Trial)
+    public void createUsers() {
+        users = BenchmarkData.users(size);
+    }
+
+    @Benchmark
+    public String toJson() {
+        return gson.toJson(users);
+    }
+}
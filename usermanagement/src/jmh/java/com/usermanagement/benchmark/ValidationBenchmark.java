@@ -0,0 +1,48 @@
+package com.usermanagement.benchmark;
+
+import com.usermanagement.model.User;
+import com.usermanagement.util.ValidationUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-row validation and sanitizing as the import validator runs them
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidationBenchmark {
+    private List<User> users;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createUsers() {
+        users = BenchmarkData.users(1024);
+    }
+
+    // Cycle through distinct users so one hot object does not flatter the numbers
+    private User nextUser() {
+        next = (next + 1) & 1023;
+        return users.get(next);
+    }
+
+    @Benchmark
+    public ValidationUtil.ValidationResult validateUser() {
+        return ValidationUtil.validateUser(nextUser());
+    }
+
+    @Benchmark
+    public User sanitizeUser() {
+        return ValidationUtil.sanitizeUser(nextUser());
+    }
+
+    @Benchmark
+    public ValidationUtil.ValidationResult sanitizeAndValidate() {
+        return ValidationUtil.validateUser(ValidationUtil.sanitizeUser(nextUser()));
+    }
+}
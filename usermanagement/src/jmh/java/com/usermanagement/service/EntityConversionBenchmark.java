@@ -0,0 +1,54 @@
+package com.usermanagement.service;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.Key;
+import com.usermanagement.benchmark.BenchmarkData;
+import com.usermanagement.model.User;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entity to User conversion, which every Datastore read of a user goes through.
+ * Lives in the service package to reach DatastoreService.entityToUser.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EntityConversionBenchmark {
+    private Entity[] entities;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void createEntities() {
+        List<User> users = BenchmarkData.users(1024);
+        entities = new Entity[users.size()];
+
+        for (int i = 0; i < entities.length; i++) {
+            User user = users.get(i);
+            entities[i] = Entity.newBuilder(Key.newBuilder("benchmark", "User", i + 1L).build())
+                    .set("name", user.getName())
+                    .set("dob", Timestamp.of(user.getDob()))
+                    .set("email", user.getEmail())
+                    .set("password", user.getPassword())
+                    .set("phone", user.getPhone())
+                    .set("gender", user.getGender())
+                    .set("address", user.getAddress())
+                    .set("createdAt", Timestamp.now())
+                    .set("updatedAt", Timestamp.now())
+                    .set("tokenVersion", 0)
+                    .build();
+        }
+    }
+
+    @Benchmark
+    public User entityToUser() {
+        next = (next + 1) & 1023;
+        return DatastoreService.entityToUser(entities[next]);
+    }
+}
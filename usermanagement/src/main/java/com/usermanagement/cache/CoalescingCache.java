@@ -0,0 +1,121 @@
+package com.usermanagement.cache;
+
+import com.usermanagement.util.DaemonThreadFactory;
+
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Single-flight cache for expensive reads such as status counts.
+ *
+ * Concurrent requests for the same key share one in-flight load instead of
+ * each running it. A value younger than the fresh window is returned as is.
+ * A value that is older, but still inside the stale window, is returned at once
+ * while one background load replaces it. Only callers with no usable value
+ * wait. If a background load fails, the old value keeps being served until
+ * the stale window runs out, so loaders should throw rather than return a
+ * placeholder. Loads that started before an invalidate() are not cached.
+ */
+public class CoalescingCache<T> {
+    private static final ExecutorService REFRESHES =
+            Executors.newCachedThreadPool(new DaemonThreadFactory("coalesced-refresh"));
+
+    private final long freshMillis;
+    private final long staleMillis;
+    private final Map<String, Entry<T>> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param freshMillis  age up to which a value is served without reloading
+     * @param staleMillis  age up to which a value is still served while it reloads
+     */
+    public CoalescingCache(long freshMillis, long staleMillis) {
+        this.freshMillis = freshMillis;
+        this.staleMillis = Math.max(freshMillis, staleMillis);
+    }
+
+    public T get(String key, Callable<T> loader) throws Exception {
+        Entry<T> entry = entries.computeIfAbsent(key, k -> new Entry<>());
+        CompletableFuture<T> load;
+
+        synchronized (entry) {
+            long age = System.currentTimeMillis() - entry.loadedAt;
+            if (entry.hasValue && age < freshMillis) {
+                return entry.value;
+            }
+
+            load = entry.inFlight != null ? entry.inFlight : startLoad(key, entry, loader);
+            if (entry.hasValue && age < staleMillis) {
+                return entry.value;
+            }
+        }
+
+        try {
+            return load.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Drop the cached value so the next request loads a new one.
+     * A load already in flight may have read the old data, so its result is discarded.
+     */
+    public void invalidate(String key) {
+        Entry<T> entry = entries.get(key);
+        if (entry != null) {
+            synchronized (entry) {
+                entry.hasValue = false;
+                entry.inFlight = null;
+                entry.generation++;
+            }
+        }
+    }
+
+    // Called with the entry lock held
+    private CompletableFuture<T> startLoad(String key, Entry<T> entry, Callable<T> loader) {
+        CompletableFuture<T> load = CompletableFuture.supplyAsync(() -> {
+            try {
+                return loader.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            }
+        }, REFRESHES);
+        long generation = entry.generation;
+        entry.inFlight = load;
+
+        load.whenComplete((value, error) -> {
+            synchronized (entry) {
+                if (entry.inFlight == load) {
+                    entry.inFlight = null;
+                }
+                if (generation != entry.generation) {
+                    return;
+                }
+                if (error == null) {
+                    entry.value = value;
+                    entry.hasValue = true;
+                    entry.loadedAt = System.currentTimeMillis();
+                } else {
+                    Throwable cause = error instanceof CompletionException && error.getCause() != null
+                            ? error.getCause() : error;
+                    System.err.println("Error loading " + key + ": " + cause.getMessage());
+                }
+            }
+        });
+        return load;
+    }
+
+    private static class Entry<T> {
+        private T value;
+        private boolean hasValue;
+        private long loadedAt;
+        private CompletableFuture<T> inFlight;
+        // Bumped by invalidate() so loads started before it are not stored
+        private long generation;
+    }
+}
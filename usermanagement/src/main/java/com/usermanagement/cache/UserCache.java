@@ -0,0 +1,166 @@
+package com.usermanagement.cache;
+
+import com.usermanagement.model.User;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Read-through cache of users keyed by id, bounded by size and age.
+ *
+ * Entries are spread over segments by id hash. Each segment is an access-ordered
+ * LinkedHashMap behind its own lock, so it evicts its least recently used entry
+ * once full and lookups on different segments never contend. Writes that go
+ * through this instance invalidate the id; other instances see the change once
+ * their entry expires.
+ */
+public class UserCache {
+    private static UserCache instance;
+
+    private static final int SEGMENTS = 16;
+    private static final int MAX_SIZE = Integer.getInteger("userCache.maxSize", 10000);
+    private static final long TTL_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("userCache.ttlSeconds", 60));
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    private UserCache() {
+        int perSegment = Math.max(1, MAX_SIZE / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+    }
+
+    public static synchronized UserCache getInstance() {
+        if (instance == null) {
+            instance = new UserCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Return the cached user, or load it and cache the result.
+     * Missing users are not cached. Callers get their own copy.
+     */
+    public User get(String id, Function<String, User> loader) {
+        Segment segment = segmentFor(id);
+        long stamp;
+
+        synchronized (segment) {
+            Entry entry = segment.map.get(id);
+            if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+                hits.increment();
+                return copy(entry.user);
+            }
+            if (entry != null) {
+                segment.map.remove(id);
+                expirations.increment();
+            }
+            stamp = segment.invalidations;
+        }
+
+        misses.increment();
+        User loaded = loader.apply(id);
+        if (loaded == null) {
+            return null;
+        }
+
+        synchronized (segment) {
+            // Skip the put if a write invalidated this segment while we were loading
+            if (segment.invalidations == stamp) {
+                segment.map.put(id, new Entry(copy(loaded), System.currentTimeMillis() + TTL_MILLIS));
+            }
+        }
+
+        return loaded;
+    }
+
+    public void invalidate(String id) {
+        Segment segment = segmentFor(id);
+        synchronized (segment) {
+            segment.map.remove(id);
+            segment.invalidations++;
+        }
+    }
+
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.map.clear();
+                segment.invalidations++;
+            }
+        }
+    }
+
+    public Map<String, Object> getStats() {
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.map.size();
+            }
+        }
+
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("size", size);
+        stats.put("maxSize", MAX_SIZE);
+        stats.put("ttlSeconds", TimeUnit.MILLISECONDS.toSeconds(TTL_MILLIS));
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", hitCount + missCount > 0 ? (double) hitCount / (hitCount + missCount) : 0.0);
+        stats.put("evictions", evictions.sum());
+        stats.put("expirations", expirations.sum());
+        return stats;
+    }
+
+    private Segment segmentFor(String id) {
+        return segments[(id.hashCode() & Integer.MAX_VALUE) % SEGMENTS];
+    }
+
+    private static User copy(User user) {
+        User copy = new User(user.getName(), user.getDob(), user.getEmail(), user.getPassword(),
+                user.getPhone(), user.getGender(), user.getAddress());
+        copy.setId(user.getId());
+        copy.setCreatedAt(user.getCreatedAt());
+        copy.setUpdatedAt(user.getUpdatedAt());
+        copy.setTokenVersion(user.getTokenVersion());
+        return copy;
+    }
+
+    private class Segment {
+        private final LinkedHashMap<String, Entry> map;
+        // Bumped by every invalidation so an in-flight load cannot cache a stale user
+        private long invalidations;
+
+        Segment(int capacity) {
+            this.map = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    if (size() > capacity) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+
+    private static class Entry {
+        private final User user;
+        private final long expiresAt;
+
+        Entry(User user, long expiresAt) {
+            this.user = user;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
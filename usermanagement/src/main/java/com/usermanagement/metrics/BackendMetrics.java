@@ -0,0 +1,101 @@
+package com.usermanagement.metrics;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.Transaction;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+/**
+ * Times Datastore and BigQuery client calls by wrapping the client interfaces.
+ *
+ * Only methods that make a request are timed, grouped into a few operations;
+ * everything else passes straight through. Each timed call is also added to
+ * the current RequestTrace, if the thread has one. Transactions returned by the
+ * wrapped Datastore are wrapped too, and their buffered put and delete calls
+ * are covered by the commit. Query results fetch later batches while they are
+ * iterated, so a query is timed up to its first batch.
+ */
+public final class BackendMetrics {
+    private static final Map<String, String> DATASTORE_OPERATIONS = Map.of(
+            "get", "get",
+            "fetch", "get",
+            "put", "put",
+            "add", "put",
+            "update", "put",
+            "delete", "delete",
+            "run", "query",
+            "runAggregation", "query",
+            "allocateId", "allocateId");
+
+    private static final Map<String, String> TRANSACTION_OPERATIONS = Map.of(
+            "get", "get",
+            "fetch", "get",
+            "run", "query",
+            "runAggregation", "query",
+            "commit", "commit",
+            "rollback", "rollback");
+
+    private static final Map<String, String> BIGQUERY_OPERATIONS = Map.of(
+            "insertAll", "insertAll",
+            "query", "query",
+            "getDataset", "metadata",
+            "getTable", "metadata",
+            "create", "metadata");
+
+    private BackendMetrics() {
+    }
+
+    public static Datastore datastore(Datastore datastore) {
+        return wrap(Datastore.class, datastore, "datastore", DATASTORE_OPERATIONS);
+    }
+
+    public static BigQuery bigQuery(BigQuery bigQuery) {
+        return wrap(BigQuery.class, bigQuery, "bigquery", BIGQUERY_OPERATIONS);
+    }
+
+    private static <T> T wrap(Class<T> type, T target, String backend, Map<String, String> operations) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            String operation = operations.get(method.getName());
+            if (operation == null) {
+                Object result = invoke(target, method, args);
+                if (result instanceof Transaction && method.getReturnType() == Transaction.class) {
+                    return wrap(Transaction.class, (Transaction) result, backend, TRANSACTION_OPERATIONS);
+                }
+                return result;
+            }
+
+            long start = System.nanoTime();
+            boolean failed = true;
+            try {
+                Object result = invoke(target, method, args);
+                failed = false;
+                return result;
+            } finally {
+                long elapsed = System.nanoTime() - start;
+                Metrics.getInstance()
+                        .timer(Metrics.BACKEND_CALL, "backend", backend, "operation", operation)
+                        .record(elapsed, failed);
+
+                RequestTrace trace = RequestTrace.current();
+                if (trace != null) {
+                    trace.record(backend, operation, elapsed);
+                }
+            }
+        };
+
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.usermanagement.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear latency histogram in the style of HdrHistogram.
+ *
+ * Values are microseconds. Each power of two is split into 16 linear
+ * sub-buckets, so any recorded value is reported within about 6% while the
+ * whole range from 1us to days fits in roughly 600 counters. Recording is one
+ * index computation and one atomic increment, with no locks or allocation.
+ */
+class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final long MAX_VALUE = (1L << (MAX_EXPONENT + 1)) - 1;
+
+    private final AtomicLongArray counts =
+            new AtomicLongArray((MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS);
+
+    void record(long micros) {
+        counts.incrementAndGet(indexOf(Math.max(0, Math.min(micros, MAX_VALUE))));
+    }
+
+    /**
+     * Add this histogram's counts into the given array, which must have length size()
+     */
+    void addTo(long[] totals) {
+        for (int i = 0; i < totals.length; i++) {
+            totals[i] += counts.get(i);
+        }
+    }
+
+    static int size() {
+        return (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+    }
+
+    /**
+     * Value at the quantile of the given counts, as the upper edge of its bucket
+     */
+    static long quantile(long[] totals, double quantile) {
+        long total = 0;
+        for (long count : totals) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < totals.length; i++) {
+            seen += totals[i];
+            if (seen >= rank) {
+                return upperEdge(i);
+            }
+        }
+        return MAX_VALUE;
+    }
+
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperEdge(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return ((long) (SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+    }
+}
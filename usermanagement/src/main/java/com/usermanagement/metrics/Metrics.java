@@ -0,0 +1,109 @@
+package com.usermanagement.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registry of request and backend timers, written out in the Prometheus
+ * text exposition format.
+ *
+ * Each family is exported as a summary, family_duration_seconds, with recent
+ * quantiles plus cumulative _sum and _count, and as a counter,
+ * family_errors_total. Callers must keep label values low-cardinality,
+ * for example a route template rather than the raw path.
+ */
+public class Metrics {
+    private static Metrics instance;
+
+    public static final String HTTP_REQUEST = "http_request";
+    public static final String BACKEND_CALL = "backend_call";
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("metrics.windowSeconds", 60));
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final Map<String, String> HELP = Map.of(
+            HTTP_REQUEST, "Servlet request handling",
+            BACKEND_CALL, "Datastore and BigQuery client calls");
+
+    // family -> label string -> timer
+    private final ConcurrentMap<String, ConcurrentMap<String, Timer>> families = new ConcurrentHashMap<>();
+
+    public static synchronized Metrics getInstance() {
+        if (instance == null) {
+            instance = new Metrics();
+        }
+        return instance;
+    }
+
+    /**
+     * Timer for the family and label pairs, e.g. timer(HTTP_REQUEST, "method", "GET")
+     */
+    public Timer timer(String family, String... labelPairs) {
+        String labels = formatLabels(labelPairs);
+        ConcurrentMap<String, Timer> timers = families.computeIfAbsent(family, f -> new ConcurrentHashMap<>());
+        Timer timer = timers.get(labels);
+        return timer != null ? timer : timers.computeIfAbsent(labels, l -> new Timer(l, WINDOW_NANOS));
+    }
+
+    public void writePrometheus(Writer out) throws IOException {
+        for (String family : new TreeSet<>(families.keySet())) {
+            List<Timer> timers = new ArrayList<>(families.get(family).values());
+            timers.sort(Comparator.comparing(Timer::getLabels));
+            String help = HELP.getOrDefault(family, family);
+
+            String duration = family + "_duration_seconds";
+            out.write("# HELP " + duration + " " + help + " latency\n");
+            out.write("# TYPE " + duration + " summary\n");
+            for (Timer timer : timers) {
+                long[] values = timer.quantiles(QUANTILES);
+                for (int i = 0; i < QUANTILES.length; i++) {
+                    out.write(duration + withLabel(timer.getLabels(), "quantile", String.valueOf(QUANTILES[i]))
+                            + " " + seconds(TimeUnit.MICROSECONDS.toNanos(values[i])) + "\n");
+                }
+                out.write(duration + "_sum" + timer.getLabels() + " " + seconds(timer.getTotalNanos()) + "\n");
+                out.write(duration + "_count" + timer.getLabels() + " " + timer.getCount() + "\n");
+            }
+
+            String errors = family + "_errors_total";
+            out.write("# HELP " + errors + " " + help + " failures\n");
+            out.write("# TYPE " + errors + " counter\n");
+            for (Timer timer : timers) {
+                out.write(errors + timer.getLabels() + " " + timer.getErrors() + "\n");
+            }
+        }
+    }
+
+    private static String formatLabels(String... pairs) {
+        if (pairs.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        if (pairs.length == 0) {
+            return "";
+        }
+
+        StringBuilder labels = new StringBuilder("{");
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (i > 0) {
+                labels.append(',');
+            }
+            labels.append(pairs[i]).append("=\"").append(escape(pairs[i + 1])).append('"');
+        }
+        return labels.append('}').toString();
+    }
+
+    private static String withLabel(String labels, String name, String value) {
+        String label = name + "=\"" + value + "\"";
+        return labels.isEmpty() ? "{" + label + "}" : labels.substring(0, labels.length() - 1) + "," + label + "}";
+    }
+
+    private static String escape(String value) {
+        return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String seconds(long nanos) {
+        return String.valueOf(nanos / 1e9);
+    }
+}
@@ -0,0 +1,107 @@
+package com.usermanagement.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backend calls made while serving one request.
+ *
+ * TracingFilter starts a trace on the request thread and BackendMetrics adds
+ * every Datastore and BigQuery call made on that thread to it. Work handed to
+ * other threads, such as background refreshes or import writers, is not
+ * counted unless that thread attaches the trace.
+ */
+public class RequestTrace {
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos = System.nanoTime();
+    // "backend-operation" -> calls and time, in first-call order
+    private final Map<String, long[]> calls = new LinkedHashMap<>();
+    private int totalCalls;
+    private boolean finished;
+
+    public static RequestTrace start() {
+        RequestTrace trace = new RequestTrace();
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    /**
+     * Trace of the request this thread is serving, or null
+     */
+    public static RequestTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Make the trace current on this thread, e.g. when a request continues elsewhere
+     */
+    public static void attach(RequestTrace trace) {
+        CURRENT.set(trace);
+    }
+
+    public static void detach() {
+        CURRENT.remove();
+    }
+
+    synchronized void record(String backend, String operation, long nanos) {
+        long[] entry = calls.computeIfAbsent(backend + "-" + operation, k -> new long[2]);
+        entry[0]++;
+        entry[1] += nanos;
+        totalCalls++;
+    }
+
+    /**
+     * True the first time only, so a request handed between threads is reported once
+     */
+    public synchronized boolean markFinished() {
+        if (finished) {
+            return false;
+        }
+        finished = true;
+        return true;
+    }
+
+    public synchronized int getTotalCalls() {
+        return totalCalls;
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Server-Timing header value, e.g. datastore-get;dur=12.5;desc="3 calls", total;dur=40.1
+     */
+    public synchronized String toServerTiming() {
+        StringBuilder header = new StringBuilder();
+        for (Map.Entry<String, long[]> entry : calls.entrySet()) {
+            long[] value = entry.getValue();
+            header.append(entry.getKey())
+                    .append(";dur=").append(millis(value[1]))
+                    .append(";desc=\"").append(value[0]).append(value[0] == 1 ? " call" : " calls").append("\", ");
+        }
+        return header.append("total;dur=").append(millis(System.nanoTime() - startNanos)).toString();
+    }
+
+    /**
+     * One-line breakdown for logs, e.g. datastore-get x30 812ms, datastore-commit x1 20ms
+     */
+    public synchronized String describeCalls() {
+        StringBuilder description = new StringBuilder();
+        for (Map.Entry<String, long[]> entry : calls.entrySet()) {
+            if (description.length() > 0) {
+                description.append(", ");
+            }
+            description.append(entry.getKey()).append(" x").append(entry.getValue()[0])
+                    .append(' ').append(TimeUnit.NANOSECONDS.toMillis(entry.getValue()[1])).append("ms");
+        }
+        return description.length() > 0 ? description.toString() : "none";
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+    }
+}
@@ -0,0 +1,94 @@
+package com.usermanagement.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency and outcome of one endpoint or backend operation.
+ *
+ * Count, total time and errors are cumulative LongAdders, so Prometheus can
+ * derive rates from them. Quantiles come from histograms over a sliding
+ * window: the current one plus the previous one, so a read always covers one
+ * to two full windows of recent traffic.
+ */
+public class Timer {
+    private final String labels;
+    private final long windowNanos;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+
+    private volatile LatencyHistogram current = new LatencyHistogram();
+    private volatile LatencyHistogram previous = new LatencyHistogram();
+    private volatile long windowStart = System.nanoTime();
+
+    Timer(String labels, long windowNanos) {
+        this.labels = labels;
+        this.windowNanos = windowNanos;
+    }
+
+    public void record(long nanos, boolean failed) {
+        rotateIfDue();
+        count.increment();
+        totalNanos.add(nanos);
+        if (failed) {
+            errors.increment();
+        }
+        current.record(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Time the given start (from System.nanoTime) until now
+     */
+    public void recordSince(long startNanos, boolean failed) {
+        record(System.nanoTime() - startNanos, failed);
+    }
+
+    String getLabels() {
+        return labels;
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Quantiles in microseconds over the recent window
+     */
+    long[] quantiles(double... quantiles) {
+        rotateIfDue();
+        long[] totals = new long[LatencyHistogram.size()];
+        previous.addTo(totals);
+        current.addTo(totals);
+
+        long[] values = new long[quantiles.length];
+        for (int i = 0; i < quantiles.length; i++) {
+            values[i] = LatencyHistogram.quantile(totals, quantiles[i]);
+        }
+        return values;
+    }
+
+    private void rotateIfDue() {
+        if (System.nanoTime() - windowStart < windowNanos) {
+            return;
+        }
+
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (now - windowStart >= windowNanos) {
+                // After a long idle period both windows are too old to keep
+                previous = now - windowStart >= 2 * windowNanos ? new LatencyHistogram() : current;
+                current = new LatencyHistogram();
+                windowStart = now;
+            }
+        }
+    }
+}
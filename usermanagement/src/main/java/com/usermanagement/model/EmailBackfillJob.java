@@ -0,0 +1,101 @@
+package com.usermanagement.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Progress of the UserEmail backfill for users stored before the kind existed.
+ * There is one per user kind; it is saved after every page with the cursor of
+ * the scan, so a failed or interrupted backfill continues where it stopped.
+ */
+public class EmailBackfillJob {
+    public enum Status { NOT_STARTED, RUNNING, COMPLETED, FAILED }
+
+    private volatile Status status = Status.NOT_STARTED;
+    private volatile String cursor;
+    private volatile long scanned;
+    private volatile long written;
+    private volatile String message;
+    private volatile long updatedAt = System.currentTimeMillis();
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+    }
+
+    /**
+     * Cursor after the last page whose users all have UserEmail entities; null before the first page
+     */
+    public String getCursor() {
+        return cursor;
+    }
+
+    public void setCursor(String cursor) {
+        this.cursor = cursor;
+    }
+
+    public long getScanned() {
+        return scanned;
+    }
+
+    public long getWritten() {
+        return written;
+    }
+
+    public void setCounts(long scanned, long written) {
+        this.scanned = scanned;
+        this.written = written;
+    }
+
+    /**
+     * Count a finished page and move the cursor past it
+     */
+    public void advance(String cursor, int scanned, int written) {
+        this.cursor = cursor;
+        this.scanned += scanned;
+        this.written += written;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void setMessage(String message) {
+        this.message = message;
+    }
+
+    public void fail(String message) {
+        this.message = message;
+        this.status = Status.FAILED;
+    }
+
+    /**
+     * Time of the last save
+     */
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public void touch() {
+        this.updatedAt = System.currentTimeMillis();
+    }
+
+    public Map<String, Object> toStatusMap() {
+        Map<String, Object> result = new HashMap<>();
+        result.put("status", status.name());
+        result.put("scanned", scanned);
+        result.put("written", written);
+        result.put("updatedAt", updatedAt);
+        if (message != null) {
+            result.put("message", message);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,211 @@
+package com.usermanagement.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress and outcome of one spreadsheet import.
+ * Counters are updated by the pipeline stages and read by status requests.
+ *
+ * Rows finish out of order, so the live counters can include rows past the
+ * checkpoint. The outcomes of those rows are held back until the checkpoint
+ * passes them; checkpoint() returns the counters for the checkpointed rows only,
+ * which is what a job saves and resumes from.
+ */
+public class ImportResult {
+    // Keep only the first errors so a bad file cannot grow the response without bound
+    private static final int MAX_ERRORS = 100;
+    private static final int SUCCEEDED = 0;
+    private static final int DUPLICATES = 1;
+    private static final int FAILED = 2;
+
+    private final AtomicLong parsed = new AtomicLong();
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicInteger checkpointRow = new AtomicInteger();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+    private volatile long totalRecords = -1;
+
+    // Counters as of the checkpoint, and outcomes of later rows keyed by row
+    private final Object settleLock = new Object();
+    private Checkpoint settled = new Checkpoint(0, 0, 0, 0);
+    private final NavigableMap<Integer, long[]> unsettled = new TreeMap<>();
+
+    /**
+     * Reload counters saved at a checkpoint before a restart; errors are not persisted
+     */
+    public void restore(Checkpoint saved) {
+        synchronized (settleLock) {
+            this.succeeded.set(saved.getSucceeded());
+            this.duplicates.set(saved.getDuplicates());
+            this.failed.set(saved.getFailed());
+            this.checkpointRow.set(saved.getRow());
+            this.settled = saved;
+            this.unsettled.clear();
+        }
+    }
+
+    /**
+     * Checkpoint row with the counters of the rows up to it, excluding later rows
+     * that already finished. Resuming from it redoes and recounts those rows.
+     */
+    public Checkpoint checkpoint() {
+        synchronized (settleLock) {
+            return settled;
+        }
+    }
+
+    /**
+     * Rows in the file, or -1 until parsing has finished
+     */
+    public long getTotalRecords() {
+        return totalRecords;
+    }
+
+    public void setTotalRecords(long totalRecords) {
+        this.totalRecords = totalRecords;
+    }
+
+    public long getParsed() {
+        return parsed.get();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    /**
+     * Rows not stored, duplicates included
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Last Excel row whose outcome is final, along with every row before it
+     */
+    public int getCheckpointRow() {
+        return checkpointRow.get();
+    }
+
+    public void advanceCheckpoint(int row) {
+        synchronized (settleLock) {
+            int current = checkpointRow.accumulateAndGet(row, Math::max);
+            if (current == settled.row) {
+                return;
+            }
+
+            long settledSucceeded = settled.succeeded;
+            long settledDuplicates = settled.duplicates;
+            long settledFailed = settled.failed;
+            NavigableMap<Integer, long[]> passed = unsettled.headMap(current, true);
+            for (long[] outcome : passed.values()) {
+                settledSucceeded += outcome[SUCCEEDED];
+                settledDuplicates += outcome[DUPLICATES];
+                settledFailed += outcome[FAILED];
+            }
+            passed.clear();
+            settled = new Checkpoint(current, settledSucceeded, settledDuplicates, settledFailed);
+        }
+    }
+
+    public void recordParsed() {
+        parsed.incrementAndGet();
+    }
+
+    /**
+     * @param lastRow last row of the stored batch, which settles with it
+     */
+    public void recordSuccess(int lastRow, long count) {
+        synchronized (settleLock) {
+            succeeded.addAndGet(count);
+            unsettled(lastRow)[SUCCEEDED] += count;
+        }
+    }
+
+    /**
+     * @param rowNumber row as shown in Excel
+     */
+    public void recordFailure(int rowNumber, String email, String error) {
+        synchronized (settleLock) {
+            failed.incrementAndGet();
+            unsettled(rowNumber)[FAILED]++;
+        }
+        if (errors.size() < MAX_ERRORS) {
+            errors.add("Row " + rowNumber + " (" + email + "): " + error);
+        }
+    }
+
+    public void recordDuplicate(int rowNumber, String email, String error) {
+        synchronized (settleLock) {
+            duplicates.incrementAndGet();
+            unsettled(rowNumber)[DUPLICATES]++;
+        }
+        recordFailure(rowNumber, email, error);
+    }
+
+    private long[] unsettled(int row) {
+        return unsettled.computeIfAbsent(row, r -> new long[3]);
+    }
+
+    public Map<String, Object> toResultMap() {
+        Map<String, Object> result = new HashMap<>();
+        if (totalRecords >= 0) {
+            result.put("totalRecords", totalRecords);
+        }
+        result.put("parsedCount", parsed.get());
+        result.put("successCount", succeeded.get());
+        result.put("duplicateCount", duplicates.get());
+        result.put("failCount", failed.get());
+        result.put("checkpointRow", checkpointRow.get());
+        synchronized (errors) {
+            result.put("errors", new ArrayList<>(errors));
+        }
+        return result;
+    }
+
+    /**
+     * A checkpoint row and the counters of every row up to it
+     */
+    public static class Checkpoint {
+        private final int row;
+        private final long succeeded;
+        private final long duplicates;
+        private final long failed;
+
+        public Checkpoint(int row, long succeeded, long duplicates, long failed) {
+            this.row = row;
+            this.succeeded = succeeded;
+            this.duplicates = duplicates;
+            this.failed = failed;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public long getSucceeded() {
+            return succeeded;
+        }
+
+        public long getDuplicates() {
+            return duplicates;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+    }
+}
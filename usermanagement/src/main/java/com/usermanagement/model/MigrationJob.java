@@ -0,0 +1,246 @@
+package com.usermanagement.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a background Datastore to BigQuery migration.
+ * Counters are updated by worker threads and read by status requests.
+ * The job is saved to Datastore with its checkpoint, so any instance can
+ * report it and it can be resumed after the instance running it is gone.
+ */
+public class MigrationJob {
+    public enum Status { RUNNING, COMPLETED, CANCELLED, FAILED }
+
+    /**
+     * STREAMING re-sends every user with insertAll; INCREMENTAL merges only users
+     * changed since the stored updatedAt watermark; LOAD writes every user to a
+     * local NDJSON file and submits one load job
+     */
+    public enum Mode { STREAMING, INCREMENTAL, LOAD }
+
+    // Keep only the first errors so a bad run cannot grow the job without bound
+    private static final int MAX_ERRORS = 100;
+
+    private final String id;
+    private final Mode mode;
+    private final int batchSize;
+    private final int chunkSize;
+    private final long totalUsers;
+    private final AtomicLong succeeded = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+    private volatile Status status = Status.RUNNING;
+    private volatile boolean cancelRequested;
+    private volatile long startedAt = System.currentTimeMillis();
+    private volatile long finishedAt;
+    private volatile long processedAtStart;
+    private volatile long updatedAt = System.currentTimeMillis();
+    // Guarded by this; counters as they were when the cursor last advanced
+    private Checkpoint checkpoint = new Checkpoint(null, 0, 0);
+
+    /**
+     * @param totalUsers expected number of rows, or -1 when unknown
+     */
+    public MigrationJob(Mode mode, int batchSize, int chunkSize, long totalUsers) {
+        this(UUID.randomUUID().toString(), mode, batchSize, chunkSize, totalUsers, new Checkpoint(null, 0, 0));
+    }
+
+    /**
+     * Rebuild a saved job with the counters and cursor of its checkpoint
+     */
+    public MigrationJob(String id, Mode mode, int batchSize, int chunkSize, long totalUsers, Checkpoint checkpoint) {
+        this.id = id;
+        this.mode = mode;
+        this.batchSize = batchSize;
+        this.chunkSize = chunkSize;
+        this.totalUsers = totalUsers;
+        this.checkpoint = checkpoint;
+        this.succeeded.set(checkpoint.getSucceeded());
+        this.failed.set(checkpoint.getFailed());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getTotalUsers() {
+        return totalUsers;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+        if (status != Status.RUNNING) {
+            this.finishedAt = System.currentTimeMillis();
+        }
+    }
+
+    public long getStartedAt() {
+        return startedAt;
+    }
+
+    public long getFinishedAt() {
+        return finishedAt;
+    }
+
+    /**
+     * Set the start and finish times of a job loaded from Datastore
+     */
+    public void restoreTimes(long startedAt, long finishedAt) {
+        this.startedAt = startedAt;
+        this.finishedAt = finishedAt;
+    }
+
+    /**
+     * Time the job was last saved
+     */
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public void touch() {
+        this.updatedAt = System.currentTimeMillis();
+    }
+
+    public boolean isCancelRequested() {
+        return cancelRequested;
+    }
+
+    public void requestCancel() {
+        this.cancelRequested = true;
+    }
+
+    /**
+     * Reset timing and flags before the job is resumed from its checkpoint
+     */
+    public void restart() {
+        this.cancelRequested = false;
+        this.startedAt = System.currentTimeMillis();
+        this.finishedAt = 0;
+        this.processedAtStart = getProcessed();
+        this.status = Status.RUNNING;
+    }
+
+    /**
+     * Cursor after the last chunk whose rows were all sent; null before the first chunk
+     */
+    public synchronized String getCheckpointCursor() {
+        return checkpoint.getCursor();
+    }
+
+    /**
+     * Move the checkpoint past a chunk whose rows were all sent and counted
+     */
+    public synchronized void advanceCheckpoint(String cursor) {
+        this.checkpoint = new Checkpoint(cursor, succeeded.get(), failed.get());
+    }
+
+    /**
+     * State to save. While the job runs, the counters are those of the last
+     * checkpoint, so a resumed job does not count the replayed chunk twice.
+     */
+    public synchronized Checkpoint checkpoint() {
+        if (status == Status.RUNNING) {
+            return checkpoint;
+        }
+        return new Checkpoint(checkpoint.getCursor(), succeeded.get(), failed.get());
+    }
+
+    public List<String> getErrors() {
+        synchronized (errors) {
+            return new ArrayList<>(errors);
+        }
+    }
+
+    public void recordSuccess(long count) {
+        succeeded.addAndGet(count);
+    }
+
+    public void recordFailure(long count, String error) {
+        failed.addAndGet(count);
+        if (error != null && errors.size() < MAX_ERRORS) {
+            errors.add(error);
+        }
+    }
+
+    public long getProcessed() {
+        return succeeded.get() + failed.get();
+    }
+
+    public Map<String, Object> toStatusMap() {
+        long processed = getProcessed();
+        long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+        double elapsedSeconds = Math.max(end - startedAt, 1) / 1000.0;
+        double rowsPerSecond = (processed - processedAtStart) / elapsedSeconds;
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("jobId", id);
+        result.put("status", status.name());
+        result.put("mode", mode.name());
+        if (totalUsers >= 0) {
+            result.put("totalUsers", totalUsers);
+        }
+        result.put("processed", processed);
+        result.put("succeeded", succeeded.get());
+        result.put("failed", failed.get());
+        result.put("rowsPerSecond", Math.round(rowsPerSecond));
+        if (status == Status.RUNNING && totalUsers >= 0 && rowsPerSecond > 0) {
+            result.put("etaSeconds", Math.round(Math.max(totalUsers - processed, 0) / rowsPerSecond));
+        }
+        result.put("errors", getErrors());
+        return result;
+    }
+
+    /**
+     * Resume point of a job and the counters up to it
+     */
+    public static class Checkpoint {
+        private final String cursor;
+        private final long succeeded;
+        private final long failed;
+
+        public Checkpoint(String cursor, long succeeded, long failed) {
+            this.cursor = cursor;
+            this.succeeded = succeeded;
+            this.failed = failed;
+        }
+
+        public String getCursor() {
+            return cursor;
+        }
+
+        public long getSucceeded() {
+            return succeeded;
+        }
+
+        public long getFailed() {
+            return failed;
+        }
+    }
+}
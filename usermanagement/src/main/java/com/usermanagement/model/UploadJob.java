@@ -0,0 +1,103 @@
+package com.usermanagement.model;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A spreadsheet import running in the background.
+ * The spooled file and the import's checkpoint row are saved to Datastore,
+ * so the job can be resumed after the instance restarts.
+ */
+public class UploadJob {
+    public enum Status { QUEUED, RUNNING, COMPLETED, FAILED }
+
+    private final String id;
+    private final String fileName;
+    private final String spoolPath;
+    private final ImportResult progress;
+
+    private volatile Status status = Status.QUEUED;
+    private volatile String message;
+    private volatile long updatedAt = System.currentTimeMillis();
+
+    public UploadJob(String fileName, String spoolPath) {
+        this(UUID.randomUUID().toString(), fileName, spoolPath, new ImportResult());
+    }
+
+    /**
+     * Rebuild a saved job; progress carries the restored counters and checkpoint
+     */
+    public UploadJob(String id, String fileName, String spoolPath, ImportResult progress) {
+        this.id = id;
+        this.fileName = fileName;
+        this.spoolPath = spoolPath;
+        this.progress = progress;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Local path of the uploaded file; it is deleted once the job finishes
+     */
+    public String getSpoolPath() {
+        return spoolPath;
+    }
+
+    public ImportResult getProgress() {
+        return progress;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public void setStatus(Status status) {
+        this.status = status;
+        touch();
+    }
+
+    public boolean isFinished() {
+        return status == Status.COMPLETED || status == Status.FAILED;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public void fail(String message) {
+        this.message = message;
+        setStatus(Status.FAILED);
+    }
+
+    /**
+     * Time of the last status change or checkpoint save
+     */
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(long updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+
+    public void touch() {
+        this.updatedAt = System.currentTimeMillis();
+    }
+
+    public Map<String, Object> toStatusMap() {
+        Map<String, Object> result = progress.toResultMap();
+        result.put("jobId", id);
+        result.put("fileName", fileName);
+        result.put("status", status.name());
+        if (message != null) {
+            result.put("message", message);
+        }
+        return result;
+    }
+}
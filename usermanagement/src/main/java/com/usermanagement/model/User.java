@@ -7,12 +7,15 @@ public class User {
     private String name;
     private Date dob;
     private String email;
+    // Read from request bodies; UserServlet leaves it out of responses
     private String password;
     private String phone;
     private String gender;
     private String address;
     private Date createdAt;
     private Date updatedAt;
+    // Bumped on every update so older session tokens stop verifying; never sent to clients
+    private transient long tokenVersion;
 
     public User() {
         this.createdAt = new Date();
@@ -113,6 +116,14 @@ public class User {
         this.updatedAt = updatedAt;
     }
 
+    public long getTokenVersion() {
+        return tokenVersion;
+    }
+
+    public void setTokenVersion(long tokenVersion) {
+        this.tokenVersion = tokenVersion;
+    }
+
     @Override
     public String toString() {
         return "User{" +
@@ -0,0 +1,431 @@
+package com.usermanagement.repository;
+
+import com.usermanagement.model.User;
+import com.usermanagement.model.UserPage;
+import com.usermanagement.search.SearchIndex;
+import com.usermanagement.service.EmailIndex;
+import com.usermanagement.service.PasswordHasher;
+import com.usermanagement.service.SessionTokenService;
+import com.usermanagement.util.ValidationUtil;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Users kept in this instance's heap, for local runs and load tests.
+ *
+ * Users are stored by numeric id in a LongObjectMap. Secondary indexes cover
+ * the normalized email and the createdAt and updatedAt orderings used for
+ * paging. One read-write lock keeps the map and the indexes consistent, so
+ * reads run in parallel and each write is a few map operations. Stored users
+ * are private copies; callers always get their own. Nothing is persisted.
+ */
+public class InMemoryUserRepository implements UserRepository {
+    private static InMemoryUserRepository instance;
+
+    private static final int INITIAL_CAPACITY = Integer.getInteger("storage.memory.initialCapacity", 1 << 16);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final LongObjectMap<User> users = new LongObjectMap<>(INITIAL_CAPACITY);
+    private final Map<String, Long> idsByEmail = new HashMap<>();
+    private final TreeSet<Position> byCreatedAt = new TreeSet<>();
+    private final TreeSet<Position> byUpdatedAt = new TreeSet<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final SearchIndex searchIndex;
+    private final PasswordHasher passwordHasher;
+
+    private InMemoryUserRepository() {
+        this.searchIndex = SearchIndex.getInstance();
+        this.passwordHasher = PasswordHasher.getInstance();
+    }
+
+    public static synchronized InMemoryUserRepository getInstance() {
+        if (instance == null) {
+            instance = new InMemoryUserRepository();
+        }
+        return instance;
+    }
+
+    @Override
+    public String createUser(User user) {
+        String passwordHash = passwordHasher.hashIfPlain(user.getPassword());
+        String email = ValidationUtil.normalizeEmail(user.getEmail());
+        User stored;
+
+        lock.writeLock().lock();
+        try {
+            if (idsByEmail.containsKey(email)) {
+                throw new IllegalStateException("Email already exists");
+            }
+            stored = insertLocked(user, passwordHash, email, new Date());
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        searchIndex.index(copy(stored));
+        return stored.getId();
+    }
+
+    @Override
+    public int createUsers(List<User> users) {
+        EmailIndex seen = new EmailIndex();
+        List<User> unique = new ArrayList<>();
+
+        for (User user : users) {
+            if (seen.add(user.getEmail())) {
+                unique.add(user);
+            }
+        }
+
+        return unique.size() - createBatch(unique).size();
+    }
+
+    @Override
+    public EmailIndex createBatch(List<User> batch) {
+        List<String> passwords = new ArrayList<>(batch.size());
+        for (User user : batch) {
+            passwords.add(user.getPassword());
+        }
+        String[] passwordHashes = passwordHasher.hashAllIfPlain(passwords);
+
+        EmailIndex taken = new EmailIndex();
+        List<User> created = new ArrayList<>(batch.size());
+        Date now = new Date();
+
+        lock.writeLock().lock();
+        try {
+            for (int i = 0; i < passwordHashes.length; i++) {
+                User user = batch.get(i);
+                String email = ValidationUtil.normalizeEmail(user.getEmail());
+                if (idsByEmail.containsKey(email)) {
+                    taken.add(user.getEmail());
+                } else {
+                    created.add(insertLocked(user, passwordHashes[i], email, now));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        for (User user : created) {
+            searchIndex.index(copy(user));
+        }
+        return taken;
+    }
+
+    @Override
+    public User getUserById(String id) {
+        long key = Long.parseLong(id);
+
+        lock.readLock().lock();
+        try {
+            User user = users.get(key);
+            return user != null ? copy(user) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<User> getUsersByIds(List<String> ids) {
+        List<User> result = new ArrayList<>(ids.size());
+
+        lock.readLock().lock();
+        try {
+            for (String id : ids) {
+                User user = users.get(Long.parseLong(id));
+                if (user != null) {
+                    result.add(copy(user));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return result;
+    }
+
+    @Override
+    public User getUserByEmail(String email) {
+        String normalized = ValidationUtil.normalizeEmail(email);
+        if (normalized.isEmpty()) {
+            return null;
+        }
+
+        lock.readLock().lock();
+        try {
+            Long id = idsByEmail.get(normalized);
+            return id != null ? copy(users.get(id)) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The cursor is the createdAt and id of the last user on the previous page
+     */
+    @Override
+    public UserPage getUsersPage(int pageSize, String cursor) {
+        lock.readLock().lock();
+        try {
+            NavigableSet<Position> remaining = cursor == null || cursor.isEmpty()
+                    ? byCreatedAt.descendingSet()
+                    : byCreatedAt.headSet(Position.parse(cursor), false).descendingSet();
+            return page(remaining, pageSize);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public UserPage getUsersUpdatedSince(Date since, int pageSize, String cursor) {
+        Position from = new Position(since.getTime(), Long.MIN_VALUE);
+
+        lock.readLock().lock();
+        try {
+            NavigableSet<Position> remaining = cursor == null || cursor.isEmpty()
+                    ? byUpdatedAt.tailSet(from, true)
+                    : byUpdatedAt.tailSet(Position.parse(cursor), false);
+            return page(remaining, pageSize);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public UserPage searchUsers(String searchTerm, int pageSize, String cursor) {
+        searchIndex.ensureBuilt(this::iterateUsers);
+
+        int offset = cursor == null || cursor.isEmpty() ? 0 : Integer.parseInt(cursor);
+        SearchIndex.SearchResult result = searchIndex.search(searchTerm, offset, pageSize);
+
+        int nextOffset = offset + result.getIds().size();
+        String nextCursor = nextOffset < result.getTotal() ? String.valueOf(nextOffset) : null;
+
+        return new UserPage(getUsersByIds(result.getIds()), nextCursor);
+    }
+
+    /**
+     * Iterates over a snapshot taken when the call is made
+     */
+    @Override
+    public Iterator<User> iterateUsers() {
+        List<User> snapshot;
+
+        lock.readLock().lock();
+        try {
+            snapshot = users.values();
+            snapshot.replaceAll(InMemoryUserRepository::copy);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return snapshot.iterator();
+    }
+
+    @Override
+    public boolean updateUser(String id, User updatedUser) {
+        long key = Long.parseLong(id);
+        String passwordHash = passwordHasher.hashIfPlain(updatedUser.getPassword());
+        String email = ValidationUtil.normalizeEmail(updatedUser.getEmail());
+        User stored;
+
+        lock.writeLock().lock();
+        try {
+            User existing = users.get(key);
+            if (existing == null) {
+                return false;
+            }
+
+            Long owner = idsByEmail.get(email);
+            if (owner != null && owner != key) {
+                throw new IllegalStateException("Email already exists");
+            }
+
+            stored = copy(updatedUser);
+            stored.setId(id);
+            stored.setPassword(passwordHash != null ? passwordHash : existing.getPassword());
+            stored.setCreatedAt(existing.getCreatedAt());
+            stored.setUpdatedAt(new Date());
+            stored.setTokenVersion(existing.getTokenVersion() + 1);
+
+            removeLocked(key, existing);
+            putLocked(key, stored, email);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        SessionTokenService.getInstance().revokeBefore(id, stored.getTokenVersion());
+        searchIndex.index(copy(stored));
+        return true;
+    }
+
+    @Override
+    public boolean deleteUser(String id) {
+        long key = Long.parseLong(id);
+
+        lock.writeLock().lock();
+        try {
+            User existing = users.get(key);
+            if (existing == null) {
+                return false;
+            }
+            removeLocked(key, existing);
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        SessionTokenService.getInstance().revokeAll(id);
+        searchIndex.remove(id);
+        return true;
+    }
+
+    @Override
+    public Long getTokenVersion(String id) {
+        lock.readLock().lock();
+        try {
+            User existing = users.get(Long.parseLong(id));
+            return existing != null ? existing.getTokenVersion() : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Like the Datastore backend, this leaves updatedAt and the token version alone
+     */
+    @Override
+    public void upgradePassword(String id, String oldHash, String newHash) {
+        lock.writeLock().lock();
+        try {
+            User existing = users.get(Long.parseLong(id));
+            if (existing != null && oldHash.equals(existing.getPassword())) {
+                existing.setPassword(newHash);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public int getUserCount() {
+        lock.readLock().lock();
+        try {
+            return users.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Drop every user, for resetting between load test runs
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            users.clear();
+            idsByEmail.clear();
+            byCreatedAt.clear();
+            byUpdatedAt.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        searchIndex.invalidate();
+    }
+
+    private User insertLocked(User user, String passwordHash, String email, Date createdAt) {
+        long key = nextId.getAndIncrement();
+
+        User stored = copy(user);
+        stored.setId(String.valueOf(key));
+        stored.setPassword(passwordHash);
+        stored.setCreatedAt(createdAt);
+        stored.setUpdatedAt(new Date());
+
+        putLocked(key, stored, email);
+        return stored;
+    }
+
+    private void putLocked(long key, User stored, String email) {
+        users.put(key, stored);
+        idsByEmail.put(email, key);
+        byCreatedAt.add(new Position(stored.getCreatedAt().getTime(), key));
+        byUpdatedAt.add(new Position(stored.getUpdatedAt().getTime(), key));
+    }
+
+    private void removeLocked(long key, User stored) {
+        users.remove(key);
+        idsByEmail.remove(ValidationUtil.normalizeEmail(stored.getEmail()));
+        byCreatedAt.remove(new Position(stored.getCreatedAt().getTime(), key));
+        byUpdatedAt.remove(new Position(stored.getUpdatedAt().getTime(), key));
+    }
+
+    // Called with the read lock held
+    private UserPage page(NavigableSet<Position> remaining, int pageSize) {
+        List<User> page = new ArrayList<>();
+        Position last = null;
+
+        for (Position position : remaining) {
+            if (page.size() == pageSize) {
+                return new UserPage(page, last.toCursor());
+            }
+            page.add(copy(users.get(position.id)));
+            last = position;
+        }
+
+        return new UserPage(page, null);
+    }
+
+    private static User copy(User user) {
+        User copy = new User(user.getName(), user.getDob(), user.getEmail(), user.getPassword(),
+                user.getPhone(), user.getGender(), user.getAddress());
+        copy.setId(user.getId());
+        copy.setCreatedAt(user.getCreatedAt());
+        copy.setUpdatedAt(user.getUpdatedAt());
+        copy.setTokenVersion(user.getTokenVersion());
+        return copy;
+    }
+
+    /**
+     * Entry in an ordered index: a timestamp with the id as tie-breaker
+     */
+    private static class Position implements Comparable<Position> {
+        private final long time;
+        private final long id;
+
+        Position(long time, long id) {
+            this.time = time;
+            this.id = id;
+        }
+
+        static Position parse(String cursor) {
+            int colon = cursor.indexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            return new Position(Long.parseLong(cursor.substring(0, colon)), Long.parseLong(cursor.substring(colon + 1)));
+        }
+
+        String toCursor() {
+            return time + ":" + id;
+        }
+
+        @Override
+        public int compareTo(Position other) {
+            int byTime = Long.compare(time, other.time);
+            return byTime != 0 ? byTime : Long.compare(id, other.id);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Position && compareTo((Position) o) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(time) * 31 + Long.hashCode(id);
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.usermanagement.repository;
+
+import com.usermanagement.model.User;
+import com.usermanagement.model.UserPage;
+import com.usermanagement.service.DatastoreService;
+import com.usermanagement.service.EmailIndex;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Storage for users, independent of where they are kept.
+ *
+ * The backend is chosen with the storage.backend system property: "datastore"
+ * (the default) stores users in Cloud Datastore, "memory" keeps them in this
+ * instance's heap for local runs and load tests. Migration bookkeeping, upload
+ * jobs and secrets are not part of this interface and still use Datastore.
+ */
+public interface UserRepository {
+
+    static UserRepository getInstance() {
+        if ("memory".equalsIgnoreCase(System.getProperty("storage.backend", "datastore"))) {
+            return InMemoryUserRepository.getInstance();
+        }
+        return DatastoreService.getInstance();
+    }
+
+    /**
+     * Store a new user and return its id. Throws IllegalStateException if the
+     * email is taken. A plain password is hashed on the calling thread.
+     */
+    String createUser(User user);
+
+    /**
+     * Store users whose email is not taken, dropping emails repeated in the list.
+     * Returns the number of users stored.
+     */
+    int createUsers(List<User> users);
+
+    /**
+     * Store a batch of users with distinct emails in one write.
+     * Users whose email is already taken are skipped; their emails are returned.
+     * Plain passwords are hashed on PasswordHasher's import pool, which the caller waits for.
+     */
+    EmailIndex createBatch(List<User> batch);
+
+    User getUserById(String id);
+
+    /**
+     * Load users in the order of the given IDs, skipping any that do not exist
+     */
+    List<User> getUsersByIds(List<String> ids);
+
+    User getUserByEmail(String email);
+
+    /**
+     * One page of users, newest first, resuming from an opaque cursor
+     */
+    UserPage getUsersPage(int pageSize, String cursor);
+
+    /**
+     * Users changed at or after the given time, oldest change first
+     */
+    UserPage getUsersUpdatedSince(Date since, int pageSize, String cursor);
+
+    /**
+     * Ranked search over name, email and phone
+     */
+    UserPage searchUsers(String searchTerm, int pageSize, String cursor);
+
+    /**
+     * Every user, read lazily where the backend allows
+     */
+    Iterator<User> iterateUsers();
+
+    /**
+     * Replace a user's fields and bump its token version; a null password keeps
+     * the current one. Returns false if the user does not exist; throws
+     * IllegalStateException if the new email is taken.
+     */
+    boolean updateUser(String id, User updatedUser);
+
+    boolean deleteUser(String id);
+
+    /**
+     * The user's stored token version, read past any cache so a revocation made
+     * on another instance is seen at once; null if the user does not exist
+     */
+    Long getTokenVersion(String id);
+
+    /**
+     * Replace a password hash unless the password changed since oldHash was read
+     */
+    void upgradePassword(String id, String oldHash, String newHash);
+
+    int getUserCount();
+}
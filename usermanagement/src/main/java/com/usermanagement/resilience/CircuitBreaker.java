@@ -0,0 +1,82 @@
+package com.usermanagement.resilience;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling a backend after repeated transient failures.
+ *
+ * After failureThreshold failed attempts in a row, retries included, the
+ * circuit opens and calls fail at once with CircuitOpenException, instead of
+ * each waiting out its own timeouts and retries. Once openSeconds have passed
+ * a single trial call is let through: success closes the circuit, failure
+ * opens it again. Errors the backend returns on purpose, such as invalid
+ * data, count as healthy responses.
+ */
+public class CircuitBreaker {
+    private static final int FAILURE_THRESHOLD = Integer.getInteger("circuit.failureThreshold", 10);
+    private static final long OPEN_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("circuit.openSeconds", 30));
+
+    private enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String backend;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoClock;
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openUntil;
+    private boolean trialInFlight;
+
+    CircuitBreaker(String backend) {
+        this(backend, FAILURE_THRESHOLD, OPEN_NANOS, System::nanoTime);
+    }
+
+    CircuitBreaker(String backend, int failureThreshold, long openNanos, LongSupplier nanoClock) {
+        this.backend = backend;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+        this.nanoClock = nanoClock;
+    }
+
+    /**
+     * Ask to make a call; throws CircuitOpenException if the backend is being left alone
+     */
+    synchronized void acquire() {
+        if (state == State.OPEN) {
+            long remaining = openUntil - nanoClock.getAsLong();
+            if (remaining > 0) {
+                throw new CircuitOpenException(backend, TimeUnit.NANOSECONDS.toMillis(remaining));
+            }
+            state = State.HALF_OPEN;
+            trialInFlight = false;
+        }
+
+        if (state == State.HALF_OPEN) {
+            if (trialInFlight) {
+                throw new CircuitOpenException(backend, 0);
+            }
+            trialInFlight = true;
+        }
+    }
+
+    synchronized void onSuccess() {
+        if (state != State.CLOSED) {
+            System.err.println("Circuit for " + backend + " closed");
+        }
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+    }
+
+    synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && consecutiveFailures >= failureThreshold)) {
+            System.err.println("Circuit for " + backend + " opened after " + consecutiveFailures
+                    + " failures in a row");
+            state = State.OPEN;
+            openUntil = nanoClock.getAsLong() + openNanos;
+            trialInFlight = false;
+        }
+    }
+}
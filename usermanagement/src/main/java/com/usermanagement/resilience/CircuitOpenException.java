@@ -0,0 +1,10 @@
+package com.usermanagement.resilience;
+
+/**
+ * Thrown instead of calling a backend whose circuit breaker is open
+ */
+public class CircuitOpenException extends RuntimeException {
+    public CircuitOpenException(String backend, long retryInMillis) {
+        super(backend + " is failing, not retrying for another " + Math.max(1, retryInMillis / 1000) + "s");
+    }
+}
@@ -0,0 +1,99 @@
+package com.usermanagement.resilience;
+
+import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.DatastoreException;
+import com.google.cloud.datastore.Transaction;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * Stand-in Datastore and BigQuery clients that fail a share of requests.
+ *
+ * Requests fail before reaching the real client with the errors a busy
+ * backend returns, UNAVAILABLE and HTTP 503, so retries, budgets and circuit
+ * breakers can be exercised locally or against a test project. Disabled
+ * unless faults.datastorePercent or faults.bigQueryPercent is set.
+ */
+public final class FaultInjector {
+    private static final int DATASTORE_PERCENT = Integer.getInteger("faults.datastorePercent", 0);
+    private static final int BIGQUERY_PERCENT = Integer.getInteger("faults.bigQueryPercent", 0);
+
+    private static final Set<String> DATASTORE_REQUESTS = Set.of(
+            "get", "fetch", "put", "add", "update", "delete", "run", "runAggregation", "allocateId", "commit");
+    private static final Set<String> BIGQUERY_REQUESTS = Set.of("insertAll", "query");
+
+    private FaultInjector() {
+    }
+
+    public static Datastore datastore(Datastore datastore) {
+        return datastore(datastore, DATASTORE_PERCENT);
+    }
+
+    public static Datastore datastore(Datastore datastore, int percent) {
+        if (percent <= 0) {
+            return datastore;
+        }
+        return datastore(datastore, request -> ThreadLocalRandom.current().nextInt(100) < percent);
+    }
+
+    /**
+     * Fail each request whose method name, e.g. "commit", the predicate accepts
+     */
+    public static Datastore datastore(Datastore datastore, Predicate<String> fail) {
+        return wrap(Datastore.class, datastore, fail, DATASTORE_REQUESTS);
+    }
+
+    public static BigQuery bigQuery(BigQuery bigQuery) {
+        return bigQuery(bigQuery, BIGQUERY_PERCENT);
+    }
+
+    public static BigQuery bigQuery(BigQuery bigQuery, int percent) {
+        if (percent <= 0) {
+            return bigQuery;
+        }
+        return bigQuery(bigQuery, request -> ThreadLocalRandom.current().nextInt(100) < percent);
+    }
+
+    public static BigQuery bigQuery(BigQuery bigQuery, Predicate<String> fail) {
+        return wrap(BigQuery.class, bigQuery, fail, BIGQUERY_REQUESTS);
+    }
+
+    private static <T> T wrap(Class<T> type, T target, Predicate<String> fail, Set<String> requests) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (requests.contains(method.getName()) && fail.test(method.getName())) {
+                throw fault(type);
+            }
+
+            Object result = invoke(target, method, args);
+            if (result instanceof Transaction && method.getReturnType() == Transaction.class) {
+                return wrap(Transaction.class, (Transaction) result, fail, requests);
+            }
+            return result;
+        };
+
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, handler));
+    }
+
+    private static RuntimeException fault(Class<?> type) {
+        if (type == BigQuery.class) {
+            return new BigQueryException(503, "Injected fault");
+        }
+        return new DatastoreException(14, "Injected fault", "UNAVAILABLE");
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
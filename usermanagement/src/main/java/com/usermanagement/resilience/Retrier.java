@@ -0,0 +1,148 @@
+package com.usermanagement.resilience;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Predicate;
+
+/**
+ * Retries backend calls that failed for transient reasons.
+ *
+ * Delays use decorrelated jitter: each wait is random between the base delay
+ * and three times the previous wait, capped at maxMillis, so writers that
+ * failed together do not retry together. Retries are paid from a budget that
+ * every call tops up by budgetPercent of a retry; when most calls fail the
+ * budget runs dry and failures surface instead of multiplying the load. Each
+ * attempt also passes the backend's circuit breaker. One instance is shared
+ * per backend, so every service writing to Datastore draws on the same budget
+ * and breaker.
+ */
+public class Retrier {
+    private static final Map<String, Retrier> BACKENDS = new ConcurrentHashMap<>();
+
+    private static final int MAX_ATTEMPTS = Integer.getInteger("retry.maxAttempts", 4);
+    private static final long BASE_MILLIS = Long.getLong("retry.baseMillis", 50);
+    private static final long MAX_MILLIS = Long.getLong("retry.maxMillis", 2000);
+    private static final double BUDGET_PER_CALL = Integer.getInteger("retry.budgetPercent", 20) / 100.0;
+    // Saved-up retries, so a quiet backend can still absorb a short burst of errors
+    private static final double BUDGET_MAX = 10;
+
+    /**
+     * A backend call; checked exceptions of the call pass through unchanged
+     */
+    public interface Operation<T, E extends Exception> {
+        T run() throws E;
+    }
+
+    interface Sleeper {
+        void sleep(long millis) throws InterruptedException;
+    }
+
+    private final CircuitBreaker circuitBreaker;
+    private final Predicate<Throwable> retryable;
+    private final Sleeper sleeper;
+    private final int maxAttempts;
+    private final long baseMillis;
+    private final long maxMillis;
+    private final double budgetPerCall;
+    private double budget = BUDGET_MAX;
+
+    Retrier(CircuitBreaker circuitBreaker, Predicate<Throwable> retryable, Sleeper sleeper) {
+        this(circuitBreaker, retryable, sleeper, MAX_ATTEMPTS, BASE_MILLIS, MAX_MILLIS, BUDGET_PER_CALL);
+    }
+
+    Retrier(CircuitBreaker circuitBreaker, Predicate<Throwable> retryable, Sleeper sleeper,
+            int maxAttempts, long baseMillis, long maxMillis, double budgetPerCall) {
+        this.circuitBreaker = circuitBreaker;
+        this.retryable = retryable;
+        this.sleeper = sleeper;
+        this.maxAttempts = maxAttempts;
+        this.baseMillis = baseMillis;
+        this.maxMillis = maxMillis;
+        this.budgetPerCall = budgetPerCall;
+    }
+
+    /**
+     * Shared retrier for a backend, e.g. "datastore" or "bigquery"
+     */
+    public static Retrier forBackend(String backend) {
+        return BACKENDS.computeIfAbsent(backend, name -> new Retrier(
+                new CircuitBreaker(name), RetryClassifier::isRetryable, Thread::sleep));
+    }
+
+    /**
+     * Run the operation, repeating it after transient failures.
+     * The operation must be safe to repeat, e.g. a whole transaction or an
+     * insert with insert ids. Throws the last failure once attempts or budget
+     * are used up, or CircuitOpenException while the backend is left alone.
+     */
+    public <T, E extends Exception> T call(Operation<T, E> operation) throws E {
+        deposit();
+        Backoff backoff = new Backoff();
+
+        while (true) {
+            circuitBreaker.acquire();
+            try {
+                T result = operation.run();
+                circuitBreaker.onSuccess();
+                return result;
+            } catch (Exception e) {
+                if (!retryable.test(e)) {
+                    // The backend answered; the request itself was wrong
+                    circuitBreaker.onSuccess();
+                    throw e;
+                }
+                circuitBreaker.onFailure();
+                if (!backoff.awaitRetry()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Backoff for callers that retry part of a response themselves, such as
+     * the rejected rows of an insertAll. Counts as one call towards the budget.
+     */
+    public Backoff backoff() {
+        deposit();
+        return new Backoff();
+    }
+
+    private synchronized void deposit() {
+        budget = Math.min(BUDGET_MAX, budget + budgetPerCall);
+    }
+
+    private synchronized boolean withdraw() {
+        if (budget < 1) {
+            return false;
+        }
+        budget--;
+        return true;
+    }
+
+    public class Backoff {
+        private int attempts = 1;
+        private long delayMillis = baseMillis;
+
+        /**
+         * Wait before the next attempt; false if no attempt should follow
+         */
+        public boolean awaitRetry() {
+            if (attempts >= maxAttempts || !withdraw()) {
+                return false;
+            }
+            attempts++;
+
+            long upper = Math.max(baseMillis, delayMillis * 3);
+            delayMillis = Math.min(maxMillis, ThreadLocalRandom.current().nextLong(baseMillis, upper + 1));
+            try {
+                sleeper.sleep(delayMillis);
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
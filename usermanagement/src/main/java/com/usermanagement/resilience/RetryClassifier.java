@@ -0,0 +1,50 @@
+package com.usermanagement.resilience;
+
+import com.google.cloud.BaseServiceException;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+
+/**
+ * Decides whether a failed Datastore or BigQuery call is worth repeating.
+ *
+ * Contention, deadlines, throttling and server errors are transient; bad
+ * requests, missing entities and our own exceptions, such as a taken email,
+ * are not.
+ */
+public final class RetryClassifier {
+    // Datastore reports gRPC status names, BigQuery its own error reasons
+    private static final Set<String> RETRYABLE_REASONS = Set.of(
+            "ABORTED", "DEADLINE_EXCEEDED", "UNAVAILABLE", "RESOURCE_EXHAUSTED", "INTERNAL",
+            "backendError", "internalError", "rateLimitExceeded");
+
+    // Not 409: BigQuery uses it for duplicates and resources that already exist
+    private static final Set<Integer> RETRYABLE_HTTP_CODES = Set.of(429, 500, 502, 503, 504);
+
+    private RetryClassifier() {
+    }
+
+    public static boolean isRetryable(Throwable error) {
+        if (error instanceof BaseServiceException) {
+            BaseServiceException serviceError = (BaseServiceException) error;
+            if (serviceError.isRetryable()) {
+                return true;
+            }
+            if (serviceError.getReason() != null) {
+                return RETRYABLE_REASONS.contains(serviceError.getReason());
+            }
+            if (RETRYABLE_HTTP_CODES.contains(serviceError.getCode())) {
+                return true;
+            }
+        }
+
+        // Timeouts and refused connections, possibly wrapped by the client library
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SocketTimeoutException || cause instanceof ConnectException) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,397 @@
+package com.usermanagement.search;
+
+import com.usermanagement.model.User;
+import com.usermanagement.util.ValidationUtil;
+
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+/**
+ * In-process inverted index over user name, email and phone.
+ *
+ * Each indexed user gets an internal ordinal. Trigram postings narrow queries of
+ * three or more characters to candidates; shorter queries scan every user. Either
+ * way a user matches when a field contains the query, as with the old full scan.
+ * Phones are stored as digits only, so a query made of phone characters is
+ * normalized the same way before it is matched against them. Matches are ranked
+ * by score, then newest user first.
+ *
+ * The index lives in the instance's heap: it is built by a full scan on first use
+ * and kept in sync by the writes that go through this instance.
+ */
+public class SearchIndex {
+    private static SearchIndex instance;
+
+    private static final int GRAM = 3;
+    private static final int COMPACT_THRESHOLD = 1000;
+
+    // Field weights used when ranking matches
+    private static final int NAME_WEIGHT = 3;
+    private static final int EMAIL_WEIGHT = 2;
+    private static final int PHONE_WEIGHT = 1;
+
+    // Digits with the separators people type in phone numbers, e.g. "(555) 123-4567"
+    private static final Pattern PHONE_QUERY = Pattern.compile("[0-9()+.\\s-]*[0-9][0-9()+.\\s-]*");
+
+    // Best score first, then newest, then by ID so pages are stable
+    private static final Comparator<Hit> BEST_FIRST = Comparator
+            .comparingInt((Hit hit) -> hit.score).reversed()
+            .thenComparing(Comparator.comparingLong((Hit hit) -> hit.doc.createdAt).reversed())
+            .thenComparing(hit -> hit.doc.id);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final List<Doc> docs = new ArrayList<>();
+    private final Map<String, Integer> ordinalById = new HashMap<>();
+    private final Map<String, PostingList> grams = new HashMap<>();
+    private int deadCount;
+    private volatile boolean built;
+
+    public static synchronized SearchIndex getInstance() {
+        if (instance == null) {
+            instance = new SearchIndex();
+        }
+        return instance;
+    }
+
+    /**
+     * Build the index from a full scan the first time it is needed
+     */
+    public void ensureBuilt(Supplier<Iterator<User>> scan) {
+        if (built) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            if (!built) {
+                clear();
+                Iterator<User> users = scan.get();
+                while (users.hasNext()) {
+                    addLocked(new Doc(users.next()));
+                }
+                built = true;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Drop the index so the next query rebuilds it from Datastore
+     */
+    public void invalidate() {
+        lock.writeLock().lock();
+        try {
+            clear();
+            built = false;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add or replace a user
+     */
+    public void index(User user) {
+        if (user == null || user.getId() == null) {
+            return;
+        }
+
+        lock.writeLock().lock();
+        try {
+            removeLocked(user.getId());
+            addLocked(new Doc(user));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String id) {
+        lock.writeLock().lock();
+        try {
+            removeLocked(id);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Return one page of matching user IDs, best match first
+     */
+    public SearchResult search(String query, int offset, int limit) {
+        String term = query == null ? "" : query.trim().toLowerCase();
+        if (term.isEmpty()) {
+            return new SearchResult(Collections.emptyList(), 0);
+        }
+        String phoneTerm = PHONE_QUERY.matcher(term).matches() ? ValidationUtil.normalizePhone(term) : null;
+
+        lock.readLock().lock();
+        try {
+            List<Hit> hits = new ArrayList<>();
+
+            if (term.length() < GRAM || phoneTerm != null && phoneTerm.length() < GRAM) {
+                // Too short for trigrams
+                for (Doc doc : docs) {
+                    addHit(hits, doc, term, phoneTerm);
+                }
+            } else {
+                PostingList candidates = gramCandidates(term);
+                if (phoneTerm != null && !phoneTerm.equals(term)) {
+                    candidates = candidates.union(gramCandidates(phoneTerm));
+                }
+                for (int i = 0; i < candidates.size; i++) {
+                    addHit(hits, docs.get(candidates.ordinals[i]), term, phoneTerm);
+                }
+            }
+
+            hits.sort(BEST_FIRST);
+
+            List<String> ids = new ArrayList<>();
+            for (int i = Math.max(offset, 0); i < hits.size() && ids.size() < limit; i++) {
+                ids.add(hits.get(i).doc.id);
+            }
+
+            return new SearchResult(ids, hits.size());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void addHit(List<Hit> hits, Doc doc, String term, String phoneTerm) {
+        if (doc == null) {
+            return;
+        }
+        int score = doc.score(term, phoneTerm);
+        if (score > 0) {
+            hits.add(new Hit(doc, score));
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return ordinalById.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void clear() {
+        docs.clear();
+        ordinalById.clear();
+        grams.clear();
+        deadCount = 0;
+    }
+
+    private void addLocked(Doc doc) {
+        int ordinal = docs.size();
+        docs.add(doc);
+        ordinalById.put(doc.id, ordinal);
+
+        Set<String> docGrams = new HashSet<>();
+        for (String field : doc.fields()) {
+            for (int i = 0; i + GRAM <= field.length(); i++) {
+                docGrams.add(field.substring(i, i + GRAM));
+            }
+        }
+
+        // Ordinals only grow, so appending keeps every posting list sorted
+        for (String gram : docGrams) {
+            grams.computeIfAbsent(gram, g -> new PostingList()).add(ordinal);
+        }
+    }
+
+    private void removeLocked(String id) {
+        Integer ordinal = ordinalById.remove(id);
+        if (ordinal != null) {
+            // Postings keep the stale ordinal; it is skipped once its doc is gone
+            docs.set(ordinal, null);
+            deadCount++;
+
+            if (deadCount > COMPACT_THRESHOLD && deadCount > ordinalById.size()) {
+                compactLocked();
+            }
+        }
+    }
+
+    /**
+     * Re-number the live docs so stale ordinals stop taking space in the postings
+     */
+    private void compactLocked() {
+        List<Doc> live = new ArrayList<>(ordinalById.size());
+        for (Doc doc : docs) {
+            if (doc != null) {
+                live.add(doc);
+            }
+        }
+
+        clear();
+        for (Doc doc : live) {
+            addLocked(doc);
+        }
+    }
+
+    private PostingList gramCandidates(String term) {
+        List<PostingList> lists = new ArrayList<>();
+        for (int i = 0; i + GRAM <= term.length(); i++) {
+            PostingList list = grams.get(term.substring(i, i + GRAM));
+            if (list == null) {
+                return new PostingList();
+            }
+            lists.add(list);
+        }
+
+        lists.sort(Comparator.comparingInt(list -> list.size));
+        PostingList result = lists.get(0);
+        for (int i = 1; i < lists.size() && result.size > 0; i++) {
+            result = result.intersect(lists.get(i));
+        }
+        return result;
+    }
+
+    private static List<String> tokenize(String field) {
+        List<String> result = new ArrayList<>();
+        for (String token : field.split("[\\s@._+-]+")) {
+            if (!token.isEmpty()) {
+                result.add(token);
+            }
+        }
+        // The whole value is a token too, so "john@" ranks as a prefix match
+        if (!field.isEmpty()) {
+            result.add(field);
+        }
+        return result;
+    }
+
+    private static int matchScore(String field, String term) {
+        if (!field.contains(term)) {
+            return 0;
+        }
+        if (field.equals(term)) {
+            return 4;
+        }
+        for (String token : tokenize(field)) {
+            if (token.equals(term)) {
+                return 3;
+            }
+            if (token.startsWith(term)) {
+                return 2;
+            }
+        }
+        return 1;
+    }
+
+    private static class Doc {
+        final String id;
+        final String name;
+        final String email;
+        final String phone;
+        final long createdAt;
+
+        Doc(User user) {
+            this.id = user.getId();
+            this.name = user.getName() == null ? "" : user.getName().trim().toLowerCase();
+            this.email = ValidationUtil.normalizeEmail(user.getEmail());
+            this.phone = ValidationUtil.normalizePhone(user.getPhone());
+            this.createdAt = user.getCreatedAt() != null ? user.getCreatedAt().getTime() : 0;
+        }
+
+        String[] fields() {
+            return new String[]{name, email, phone};
+        }
+
+        /**
+         * @param phoneTerm the query as digits, or null when it is not a phone number
+         */
+        int score(String term, String phoneTerm) {
+            return NAME_WEIGHT * matchScore(name, term)
+                    + EMAIL_WEIGHT * matchScore(email, term)
+                    + (phoneTerm != null ? PHONE_WEIGHT * matchScore(phone, phoneTerm) : 0);
+        }
+    }
+
+    private static class Hit {
+        final Doc doc;
+        final int score;
+
+        Hit(Doc doc, int score) {
+            this.doc = doc;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Growable, sorted array of ordinals
+     */
+    private static class PostingList {
+        int[] ordinals = new int[4];
+        int size;
+
+        void add(int ordinal) {
+            if (size == ordinals.length) {
+                ordinals = Arrays.copyOf(ordinals, size * 2);
+            }
+            ordinals[size++] = ordinal;
+        }
+
+        PostingList intersect(PostingList other) {
+            PostingList result = new PostingList();
+            int i = 0;
+            int j = 0;
+            while (i < size && j < other.size) {
+                if (ordinals[i] == other.ordinals[j]) {
+                    result.add(ordinals[i]);
+                    i++;
+                    j++;
+                } else if (ordinals[i] < other.ordinals[j]) {
+                    i++;
+                } else {
+                    j++;
+                }
+            }
+            return result;
+        }
+
+        PostingList union(PostingList other) {
+            PostingList result = new PostingList();
+            int i = 0;
+            int j = 0;
+            while (i < size || j < other.size) {
+                if (j == other.size || i < size && ordinals[i] < other.ordinals[j]) {
+                    result.add(ordinals[i++]);
+                } else if (i == size || other.ordinals[j] < ordinals[i]) {
+                    result.add(other.ordinals[j++]);
+                } else {
+                    result.add(ordinals[i]);
+                    i++;
+                    j++;
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Page of ranked user IDs plus the total number of matches
+     */
+    public static class SearchResult {
+        private final List<String> ids;
+        private final int total;
+
+        public SearchResult(List<String> ids, int total) {
+            this.ids = ids;
+            this.total = total;
+        }
+
+        public List<String> getIds() {
+            return ids;
+        }
+
+        public int getTotal() {
+            return total;
+        }
+    }
+}
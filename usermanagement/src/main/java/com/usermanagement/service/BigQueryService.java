@@ -1,8 +1,16 @@
 package com.usermanagement.service;
 
 import com.google.cloud.bigquery.*;
+import com.usermanagement.metrics.BackendMetrics;
 import com.usermanagement.model.User;
+import com.usermanagement.resilience.FaultInjector;
+import com.usermanagement.resilience.Retrier;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.*;
 
@@ -11,10 +19,30 @@ public class BigQueryService {
     private final BigQuery bigQuery;
     private static final String DATASET_NAME = "user_management";
     private static final String TABLE_NAME = "users";
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    public static final Schema USERS_SCHEMA = Schema.of(
+            Field.of("id", StandardSQLTypeName.STRING),
+            Field.of("name", StandardSQLTypeName.STRING),
+            Field.of("dob", StandardSQLTypeName.DATE),
+            Field.of("email", StandardSQLTypeName.STRING),
+            Field.of("phone", StandardSQLTypeName.STRING),
+            Field.of("gender", StandardSQLTypeName.STRING),
+            Field.of("address", StandardSQLTypeName.STRING),
+            Field.of("created_at", StandardSQLTypeName.TIMESTAMP),
+            Field.of("migrated_at", StandardSQLTypeName.TIMESTAMP)
+    );
     private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+    private final Retrier retrier;
 
     private BigQueryService() {
-        this.bigQuery = BigQueryOptions.getDefaultInstance().getService();
+        this(FaultInjector.bigQuery(BigQueryOptions.getDefaultInstance().getService()));
+    }
+
+    // Package-private so a test can supply the client, e.g. one wrapped by FaultInjector
+    BigQueryService(BigQuery bigQuery) {
+        this.bigQuery = BackendMetrics.bigQuery(bigQuery);
+        this.retrier = Retrier.forBackend("bigquery");
         createDatasetAndTable();
     }
 
@@ -41,19 +69,7 @@ public class BigQueryService {
             Table table = bigQuery.getTable(tableId);
 
             if (table == null) {
-                Schema schema = Schema.of(
-                        Field.of("id", StandardSQLTypeName.STRING),
-                        Field.of("name", StandardSQLTypeName.STRING),
-                        Field.of("dob", StandardSQLTypeName.DATE),
-                        Field.of("email", StandardSQLTypeName.STRING),
-                        Field.of("phone", StandardSQLTypeName.STRING),
-                        Field.of("gender", StandardSQLTypeName.STRING),
-                        Field.of("address", StandardSQLTypeName.STRING),
-                        Field.of("created_at", StandardSQLTypeName.TIMESTAMP),
-                        Field.of("migrated_at", StandardSQLTypeName.TIMESTAMP)
-                );
-
-                TableDefinition tableDefinition = StandardTableDefinition.of(schema);
+                TableDefinition tableDefinition = StandardTableDefinition.of(USERS_SCHEMA);
                 TableInfo tableInfo = TableInfo.newBuilder(tableId, tableDefinition).build();
                 bigQuery.create(tableInfo);
             }
@@ -63,35 +79,17 @@ public class BigQueryService {
         }
     }
 
+    /**
+     * Migrate one user; transient failures are retried before giving up
+     */
     public boolean migrateUser(User user) {
         try {
-            TableId tableId = TableId.of(DATASET_NAME, TABLE_NAME);
+            InsertResult result = migrateUsers(Collections.singletonList(user), 1);
 
-            Map<String, Object> rowContent = new HashMap<>();
-            rowContent.put("id", user.getId());
-            rowContent.put("name", user.getName());
-            rowContent.put("dob", dateFormat.format(user.getDob()));
-            rowContent.put("email", user.getEmail());
-            rowContent.put("phone", user.getPhone());
-            rowContent.put("gender", user.getGender());
-            rowContent.put("address", user.getAddress());
-            rowContent.put("created_at", user.getCreatedAt().getTime() / 1000.0);
-            rowContent.put("migrated_at", System.currentTimeMillis() / 1000.0);
-
-            InsertAllRequest insertRequest = InsertAllRequest.newBuilder(tableId)
-                    .addRow(rowContent)
-                    .build();
-
-            InsertAllResponse response = bigQuery.insertAll(insertRequest);
-
-            if (response.hasErrors()) {
-                response.getInsertErrors().forEach((key, errors) -> {
-                    System.err.println("Errors for row " + key + ":");
-                    errors.forEach(error -> System.err.println("  " + error.getMessage()));
-                });
+            if (!result.getErrors().isEmpty()) {
+                result.getErrors().forEach(System.err::println);
                 return false;
             }
-
             return true;
         } catch (Exception e) {
             System.err.println("Error migrating user: " + e.getMessage());
@@ -100,43 +98,264 @@ public class BigQueryService {
         }
     }
 
-    public Map<String, Object> bulkMigrate(List<User> users) {
-        Map<String, Object> result = new HashMap<>();
-        int successCount = 0;
-        int failCount = 0;
-        List<String> errors = new ArrayList<>();
+    /**
+     * Migrate users with multi-row insertAll requests of up to batchSize rows.
+     * Each row carries an insertId made of the user id and updatedAt, so BigQuery
+     * drops replays of the same version but keeps an edit made since.
+     * Failed requests and rows rejected for transient reasons are retried with
+     * the shared BigQuery backoff; rows with invalid data are reported back
+     * without retrying. A request that still fails, or rows still rejected once
+     * the retries run out, are thrown rather than reported, since those users
+     * were not migrated and must be sent again.
+     */
+    public InsertResult migrateUsers(List<User> users, int batchSize) {
+        InsertResult result = new InsertResult();
+
+        for (int start = 0; start < users.size(); start += batchSize) {
+            List<User> batch = users.subList(start, Math.min(start + batchSize, users.size()));
+            Retrier.Backoff backoff = retrier.backoff();
+            Map<User, String> pending = insertRows(batch, result);
+
+            while (!pending.isEmpty()) {
+                if (!backoff.awaitRetry()) {
+                    throw new BigQueryException(0, pending.size() + " rows still rejected after retries: "
+                            + pending.values().iterator().next());
+                }
+                pending = insertRows(new ArrayList<>(pending.keySet()), result);
+            }
+        }
 
+        return result;
+    }
+
+    /**
+     * Send one insertAll request and return the rows worth retrying, with their errors.
+     * A request that fails as a whole is thrown once the retrier gives up.
+     */
+    private Map<User, String> insertRows(List<User> users, InsertResult result) {
+        InsertAllRequest.Builder builder = InsertAllRequest.newBuilder(TableId.of(DATASET_NAME, TABLE_NAME));
         for (User user : users) {
-            boolean success = migrateUser(user);
-            if (success) {
-                successCount++;
+            builder.addRow(insertIdOf(user), toRow(user));
+        }
+        InsertAllRequest request = builder.build();
+
+        InsertAllResponse response = retrier.call(() -> bigQuery.insertAll(request));
+
+        Map<Long, List<BigQueryError>> insertErrors = response.getInsertErrors();
+        Map<User, String> retry = new LinkedHashMap<>();
+
+        for (int i = 0; i < users.size(); i++) {
+            User user = users.get(i);
+            List<BigQueryError> errors = insertErrors.get((long) i);
+
+            if (errors == null || errors.isEmpty()) {
+                result.addSuccess();
+            } else if (isRetryable(errors)) {
+                retry.put(user, errors.get(0).getMessage());
             } else {
-                failCount++;
-                errors.add("Failed to migrate user: " + user.getEmail());
+                result.addFailure(user, errors.get(0).getMessage());
             }
         }
 
-        result.put("total", users.size());
-        result.put("success", successCount);
-        result.put("failed", failCount);
-        result.put("errors", errors);
+        return retry;
+    }
 
-        return result;
+    // BigQuery dedupes on insertId for about a minute; the raw id would drop a re-sent edit
+    private static String insertIdOf(User user) {
+        return user.getUpdatedAt() != null ? user.getId() + "@" + user.getUpdatedAt().getTime() : user.getId();
+    }
+
+    // "invalid" marks bad row data; other reasons, such as "stopped" for rows
+    // rejected because another row in the request failed, can succeed on retry
+    private boolean isRetryable(List<BigQueryError> errors) {
+        for (BigQueryError error : errors) {
+            if ("invalid".equals(error.getReason())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Map<String, Object> toRow(User user) {
+        Map<String, Object> rowContent = new HashMap<>();
+        rowContent.put("id", user.getId());
+        rowContent.put("name", user.getName());
+        rowContent.put("dob", formatDate(user.getDob()));
+        rowContent.put("email", user.getEmail());
+        rowContent.put("phone", user.getPhone());
+        rowContent.put("gender", user.getGender());
+        rowContent.put("address", user.getAddress());
+        rowContent.put("created_at", user.getCreatedAt().getTime() / 1000.0);
+        rowContent.put("migrated_at", System.currentTimeMillis() / 1000.0);
+        return rowContent;
+    }
+
+    // SimpleDateFormat is not thread-safe and rows are now built by several workers
+    private String formatDate(Date date) {
+        synchronized (dateFormat) {
+            return dateFormat.format(date);
+        }
     }
 
-    public long getMigratedUserCount() {
+    /**
+     * Insert or update users by id with a single MERGE statement.
+     * Rows are passed as parallel array parameters and zipped back together by
+     * offset, which keeps the source in the query instead of a staging table.
+     * DML cannot modify rows still in the streaming buffer, so after a recent
+     * streaming migration this fails with an IllegalStateException saying so.
+     */
+    public void upsertUsers(List<User> users) throws InterruptedException {
+        if (users.isEmpty()) {
+            return;
+        }
+
+        int size = users.size();
+        String[] ids = new String[size];
+        String[] names = new String[size];
+        String[] dobs = new String[size];
+        String[] emails = new String[size];
+        String[] phones = new String[size];
+        String[] genders = new String[size];
+        String[] addresses = new String[size];
+        Long[] createdAt = new Long[size];
+
+        // Array parameters cannot hold NULL, so missing values travel as '' and NULLIF restores them
+        for (int i = 0; i < size; i++) {
+            User user = users.get(i);
+            ids[i] = user.getId();
+            names[i] = nullToEmpty(user.getName());
+            dobs[i] = user.getDob() != null ? formatDate(user.getDob()) : "";
+            emails[i] = nullToEmpty(user.getEmail());
+            phones[i] = nullToEmpty(user.getPhone());
+            genders[i] = nullToEmpty(user.getGender());
+            addresses[i] = nullToEmpty(user.getAddress());
+            createdAt[i] = user.getCreatedAt().getTime() * 1000;
+        }
+
+        String table = "`" + DATASET_NAME + "." + TABLE_NAME + "`";
+        String query = "MERGE " + table + " T "
+                + "USING ("
+                + "  SELECT id, "
+                + "    NULLIF(@names[OFFSET(i)], '') AS name, "
+                + "    SAFE_CAST(NULLIF(@dobs[OFFSET(i)], '') AS DATE) AS dob, "
+                + "    NULLIF(@emails[OFFSET(i)], '') AS email, "
+                + "    NULLIF(@phones[OFFSET(i)], '') AS phone, "
+                + "    NULLIF(@genders[OFFSET(i)], '') AS gender, "
+                + "    NULLIF(@addresses[OFFSET(i)], '') AS address, "
+                + "    TIMESTAMP_MICROS(@createdAt[OFFSET(i)]) AS created_at "
+                + "  FROM UNNEST(@ids) AS id WITH OFFSET i"
+                + ") S "
+                + "ON T.id = S.id "
+                + "WHEN MATCHED THEN UPDATE SET "
+                + "  name = S.name, dob = S.dob, email = S.email, phone = S.phone, "
+                + "  gender = S.gender, address = S.address, created_at = S.created_at, "
+                + "  migrated_at = CURRENT_TIMESTAMP() "
+                + "WHEN NOT MATCHED THEN INSERT "
+                + "  (id, name, dob, email, phone, gender, address, created_at, migrated_at) "
+                + "  VALUES (S.id, S.name, S.dob, S.email, S.phone, S.gender, S.address, S.created_at, CURRENT_TIMESTAMP())";
+
+        QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(query)
+                .addNamedParameter("ids", QueryParameterValue.array(ids, String.class))
+                .addNamedParameter("names", QueryParameterValue.array(names, String.class))
+                .addNamedParameter("dobs", QueryParameterValue.array(dobs, String.class))
+                .addNamedParameter("emails", QueryParameterValue.array(emails, String.class))
+                .addNamedParameter("phones", QueryParameterValue.array(phones, String.class))
+                .addNamedParameter("genders", QueryParameterValue.array(genders, String.class))
+                .addNamedParameter("addresses", QueryParameterValue.array(addresses, String.class))
+                .addNamedParameter("createdAt", QueryParameterValue.array(createdAt, Long.class))
+                .build();
+
+        // MERGE by id is safe to repeat
         try {
-            String query = "SELECT COUNT(*) as count FROM `" + DATASET_NAME + "." + TABLE_NAME + "`";
-            QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(query).build();
-            TableResult result = bigQuery.query(queryConfig);
+            retrier.call(() -> bigQuery.query(queryConfig));
+        } catch (BigQueryException | JobException e) {
+            if (hitStreamingBuffer(e)) {
+                throw new IllegalStateException("Some of these users were streamed by insertAll recently and are "
+                        + "still in BigQuery's streaming buffer, which MERGE cannot update. "
+                        + "Run the sync again once the buffer is flushed, usually within 90 minutes.", e);
+            }
+            throw e;
+        }
+    }
 
-            for (FieldValueList row : result.iterateAll()) {
-                return row.get("count").getLongValue();
+    private static boolean hitStreamingBuffer(RuntimeException e) {
+        if (mentionsStreamingBuffer(e.getMessage())) {
+            return true;
+        }
+        if (e instanceof JobException) {
+            for (BigQueryError error : ((JobException) e).getErrors()) {
+                if (mentionsStreamingBuffer(error.getMessage())) {
+                    return true;
+                }
             }
-        } catch (Exception e) {
-            System.err.println("Error getting migrated user count: " + e.getMessage());
         }
+        return false;
+    }
+
+    private static boolean mentionsStreamingBuffer(String message) {
+        return message != null && message.toLowerCase().contains("streaming buffer");
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    /**
+     * Upload a newline-delimited JSON file with a single load job and wait for it.
+     * Load jobs are free, unlike streaming inserts, and suit full backfills.
+     * Returns the number of rows BigQuery reports as loaded.
+     */
+    public long loadNdjson(Path file, boolean truncate) throws IOException, InterruptedException {
+        WriteChannelConfiguration configuration = WriteChannelConfiguration
+                .newBuilder(TableId.of(DATASET_NAME, TABLE_NAME))
+                .setFormatOptions(FormatOptions.json())
+                .setSchema(USERS_SCHEMA)
+                .setWriteDisposition(truncate
+                        ? JobInfo.WriteDisposition.WRITE_TRUNCATE
+                        : JobInfo.WriteDisposition.WRITE_APPEND)
+                .build();
+
+        TableDataWriteChannel writer = bigQuery.writer(configuration);
+        try (OutputStream out = Channels.newOutputStream(writer)) {
+            Files.copy(file, out);
+        }
+
+        Job job = writer.getJob().waitFor();
+        if (job == null) {
+            throw new IOException("Load job no longer exists");
+        }
+        if (job.getStatus().getError() != null) {
+            throw new IOException("Load job failed: " + job.getStatus().getError().getMessage());
+        }
+
+        JobStatistics.LoadStatistics statistics = job.getStatistics();
+        return statistics.getOutputRows() != null ? statistics.getOutputRows() : 0;
+    }
+
+    public Map<String, Object> bulkMigrate(List<User> users) {
+        InsertResult insertResult = migrateUsers(users, DEFAULT_BATCH_SIZE);
 
+        Map<String, Object> result = new HashMap<>();
+        result.put("total", users.size());
+        result.put("success", insertResult.getSucceeded());
+        result.put("failed", insertResult.getFailedUsers().size());
+        result.put("errors", insertResult.getErrors());
+
+        return result;
+    }
+
+    /**
+     * Rows in the users table. Failures are thrown, not reported as 0,
+     * so a cached count is kept rather than replaced.
+     */
+    public long getMigratedUserCount() throws InterruptedException {
+        String query = "SELECT COUNT(*) as count FROM `" + DATASET_NAME + "." + TABLE_NAME + "`";
+        QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(query).build();
+        TableResult result = retrier.call(() -> bigQuery.query(queryConfig));
+
+        for (FieldValueList row : result.iterateAll()) {
+            return row.get("count").getLongValue();
+        }
         return 0;
     }
 
@@ -162,4 +381,34 @@ public class BigQueryService {
 
         return users;
     }
-}
\ No newline at end of file
+
+    /**
+     * Outcome of a batched migration, with failures mapped back to users
+     */
+    public static class InsertResult {
+        private int succeeded;
+        private final List<User> failedUsers = new ArrayList<>();
+        private final List<String> errors = new ArrayList<>();
+
+        void addSuccess() {
+            succeeded++;
+        }
+
+        void addFailure(User user, String message) {
+            failedUsers.add(user);
+            errors.add("Failed to migrate user " + user.getEmail() + ": " + message);
+        }
+
+        public int getSucceeded() {
+            return succeeded;
+        }
+
+        public List<User> getFailedUsers() {
+            return failedUsers;
+        }
+
+        public List<String> getErrors() {
+            return errors;
+        }
+    }
+}
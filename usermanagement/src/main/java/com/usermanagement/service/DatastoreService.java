@@ -2,19 +2,67 @@ package com.usermanagement.service;
 
 import com.google.cloud.Timestamp;
 import com.google.cloud.datastore.*;
+import com.google.common.collect.Iterators;
+import com.google.datastore.v1.QueryResultBatch;
+import com.usermanagement.cache.UserCache;
+import com.usermanagement.metrics.BackendMetrics;
+import com.usermanagement.model.EmailBackfillJob;
+import com.usermanagement.model.ImportResult;
+import com.usermanagement.model.MigrationJob;
+import com.usermanagement.model.UploadJob;
 import com.usermanagement.model.User;
-
+import com.usermanagement.model.UserPage;
+import com.usermanagement.repository.UserRepository;
+import com.usermanagement.resilience.FaultInjector;
+import com.usermanagement.resilience.Retrier;
+import com.usermanagement.search.SearchIndex;
+import com.usermanagement.util.ValidationUtil;
+
+import java.security.SecureRandom;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
-
-public class DatastoreService {
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Cloud Datastore backend for users, plus the Datastore-only state around them:
+ * migration watermarks and jobs, upload jobs and shared secrets.
+ */
+public class DatastoreService implements UserRepository {
     private static DatastoreService instance;
     private final Datastore datastore;
+    private final KeyFactory keyFactory;
+    private final KeyAllocator userKeys;
+    private final UserCounter userCounter;
+    private final SearchIndex searchIndex;
+    private final UserCache userCache;
+    private final PasswordHasher passwordHasher;
+    private final Retrier retrier;
     private static final String KIND = "User";
+    private static final String WATERMARK_KIND = "MigrationWatermark";
+    private static final String UPLOAD_JOB_KIND = "UploadJob";
+    private static final String MIGRATION_JOB_KIND = "MigrationJob";
+    private static final String SECRET_KIND = "Secret";
+    // Each user is written with its UserEmail entity plus one count shard per commit,
+    // and a commit holds at most 500 writes
+    public static final int BATCH_SIZE = 249;
 
     private DatastoreService() {
-        this.datastore = DatastoreOptions.getDefaultInstance().getService();
+        this(FaultInjector.datastore(DatastoreOptions.getDefaultInstance().getService()));
+    }
+
+    // Package-private so a test can pass an emulator client or a FaultInjector stand-in
+    DatastoreService(Datastore datastore) {
+        this.datastore = BackendMetrics.datastore(datastore);
+        this.keyFactory = this.datastore.newKeyFactory().setKind(KIND);
+        this.userKeys = KeyAllocator.forKind(this.datastore, KIND);
+        this.userCounter = UserCounter.forKind(this.datastore, KIND);
+        this.searchIndex = SearchIndex.getInstance();
+        this.userCache = UserCache.getInstance();
+        this.passwordHasher = PasswordHasher.getInstance();
+        this.retrier = Retrier.forBackend("datastore");
     }
 
     public static synchronized DatastoreService getInstance() {
@@ -24,28 +72,150 @@ public class DatastoreService {
         return instance;
     }
 
+    /**
+     * Callers on request threads should hash the password through
+     * PasswordHasher.hash first; a plain one is hashed here on the calling thread.
+     */
+    @Override
     public String createUser(User user) {
-        KeyFactory keyFactory = datastore.newKeyFactory().setKind(KIND);
-        Key key = datastore.allocateId(keyFactory.newKey());
+        Key emailKey = UniqueEmail.keyFor(datastore, user.getEmail());
+        if (legacyOwner(user.getEmail()) != null) {
+            throw new IllegalStateException("Email already exists");
+        }
+        Key key = userKeys.next();
+        String passwordHash = passwordHasher.hashIfPlain(user.getPassword());
+
+        return inTransaction(txn -> {
+            List<Entity> found = txn.fetch(emailKey, key);
+            Entity entity;
+
+            if (found.get(0) == null) {
+                entity = buildEntity(key, user, passwordHash, Timestamp.now());
+                txn.put(entity, UniqueEmail.newEntity(emailKey, key));
+                userCounter.add(txn, 1);
+                txn.commit();
+            } else if (key.equals(UniqueEmail.userKeyOf(found.get(0))) && found.get(1) != null) {
+                // An earlier attempt committed before its response was lost
+                entity = found.get(1);
+            } else {
+                throw new IllegalStateException("Email already exists");
+            }
 
-        Entity entity = Entity.newBuilder(key)
-                .set("name", user.getName())
-                .set("dob", Timestamp.of(user.getDob()))
-                .set("email", user.getEmail())
-                .set("password", user.getPassword())
-                .set("phone", user.getPhone())
-                .set("gender", user.getGender())
-                .set("address", user.getAddress())
-                .set("createdAt", Timestamp.now())
-                .set("updatedAt", Timestamp.now())
-                .build();
+            userCounter.committed(1);
+            searchIndex.index(entityToUser(entity));
+            return key.getId().toString();
+        });
+    }
 
-        datastore.put(entity);
-        return key.getId().toString();
+    /**
+     * Create users whose email is not already taken, writing in batches.
+     * Emails repeated within the list are dropped first; each batch then checks
+     * its UserEmail keys and writes users plus email entities in one transaction.
+     * Returns the number of users stored.
+     */
+    @Override
+    public int createUsers(List<User> users) {
+        EmailIndex seen = new EmailIndex();
+        List<User> unique = new ArrayList<>();
+
+        for (User user : users) {
+            if (seen.add(user.getEmail())) {
+                unique.add(user);
+            }
+        }
+
+        int successCount = 0;
+
+        for (int start = 0; start < unique.size(); start += BATCH_SIZE) {
+            List<User> batch = unique.subList(start, Math.min(start + BATCH_SIZE, unique.size()));
+
+            try {
+                successCount += batch.size() - createBatch(batch).size();
+            } catch (Exception e) {
+                System.err.println("Error creating user batch: " + e.getMessage());
+            }
+        }
+
+        return successCount;
+    }
+
+    /**
+     * Store at most BATCH_SIZE users with distinct emails in one transaction.
+     * Users whose email is already taken are skipped; their emails are returned.
+     * Plain passwords are hashed on the import pool before the transaction opens.
+     * Until the email backfill completes, users stored before UserEmail existed are
+     * looked up for the whole batch with a few IN queries.
+     * User keys are drawn once, so a retry recognizes emails that an earlier
+     * attempt stored for the same key and counts those users as stored.
+     */
+    @Override
+    public EmailIndex createBatch(List<User> batch) {
+        Key[] emailKeys = new Key[batch.size()];
+        List<String> passwords = new ArrayList<>(batch.size());
+        for (int i = 0; i < emailKeys.length; i++) {
+            emailKeys[i] = UniqueEmail.keyFor(datastore, batch.get(i).getEmail());
+            passwords.add(batch.get(i).getPassword());
+        }
+        String[] passwordHashes = passwordHasher.hashAllIfPlain(passwords);
+        List<Key> keys = userKeys.next(batch.size());
+        EmailIndex legacyTaken = legacyOwners(batch);
+
+        return inTransaction(txn -> {
+            List<Entity> found = txn.fetch(emailKeys);
+            EmailIndex taken = new EmailIndex();
+            List<Entity> entities = new ArrayList<>();
+            List<Key> storedEarlier = new ArrayList<>();
+            Timestamp now = Timestamp.now();
+
+            for (int i = 0; i < emailKeys.length; i++) {
+                Entity emailEntity = found.get(i);
+                if (emailEntity == null && !legacyTaken.contains(batch.get(i).getEmail())) {
+                    entities.add(buildEntity(keys.get(i), batch.get(i), passwordHashes[i], now));
+                    entities.add(UniqueEmail.newEntity(emailKeys[i], keys.get(i)));
+                } else if (emailEntity != null && keys.get(i).equals(UniqueEmail.userKeyOf(emailEntity))) {
+                    storedEarlier.add(keys.get(i));
+                } else {
+                    taken.add(batch.get(i).getEmail());
+                }
+            }
+
+            // Users written by an attempt that committed before its response was lost
+            List<Entity> stored = new ArrayList<>();
+            if (!storedEarlier.isEmpty()) {
+                for (Entity entity : txn.fetch(storedEarlier.toArray(new Key[0]))) {
+                    if (entity != null) {
+                        stored.add(entity);
+                    }
+                }
+            }
+
+            if (!entities.isEmpty()) {
+                txn.put(entities.toArray(new Entity[0]));
+                userCounter.add(txn, entities.size() / 2);
+                txn.commit();
+                for (int i = 0; i < entities.size(); i += 2) {
+                    stored.add(entities.get(i));
+                }
+            }
+
+            userCounter.committed(stored.size());
+            for (Entity entity : stored) {
+                searchIndex.index(entityToUser(entity));
+            }
+            return taken;
+        });
     }
 
+    /**
+     * Served from the user cache; a miss falls through to a Datastore get
+     */
+    @Override
     public User getUserById(String id) {
-        Key key = datastore.newKeyFactory().setKind(KIND).newKey(Long.parseLong(id));
+        return userCache.get(id, this::loadUserById);
+    }
+
+    private User loadUserById(String id) {
+        Key key = keyFactory.newKey(Long.parseLong(id));
         Entity entity = datastore.get(key);
 
         if (entity == null) {
@@ -55,7 +225,20 @@ public class DatastoreService {
         return entityToUser(entity);
     }
 
+    @Override
     public User getUserByEmail(String email) {
+        String normalized = ValidationUtil.normalizeEmail(email);
+        if (normalized.isEmpty()) {
+            return null;
+        }
+
+        Entity emailEntity = datastore.get(UniqueEmail.keyFor(datastore, normalized));
+        if (emailEntity != null) {
+            Entity entity = datastore.get(UniqueEmail.userKeyOf(emailEntity));
+            return entity != null ? entityToUser(entity) : null;
+        }
+
+        // Users written before the UserEmail backfill only have the indexed property
         Query<Entity> query = Query.newEntityQueryBuilder()
                 .setKind(KIND)
                 .setFilter(StructuredQuery.PropertyFilter.eq("email", email))
@@ -71,6 +254,41 @@ public class DatastoreService {
         return null;
     }
 
+    /**
+     * Progress of the UserEmail backfill for users stored before the kind existed
+     */
+    public EmailBackfillJob getEmailBackfill() {
+        return UniqueEmail.loadBackfill(datastore, KIND);
+    }
+
+    public void saveEmailBackfill(EmailBackfillJob job) {
+        UniqueEmail.saveBackfill(datastore, KIND, job);
+    }
+
+    /**
+     * Backfill the next page of users and save the job's progress
+     */
+    public void backfillEmailPage(EmailBackfillJob job, int pageSize) {
+        UniqueEmail.backfillPage(datastore, KIND, job, pageSize);
+    }
+
+    // Users stored before UserEmail existed are found by their email property
+    // until the backfill has given them UserEmail entities too
+    private Key legacyOwner(String email) {
+        return UniqueEmail.isBackfilled(datastore, KIND) ? null : UniqueEmail.legacyOwner(datastore, KIND, email);
+    }
+
+    private EmailIndex legacyOwners(List<User> users) {
+        if (UniqueEmail.isBackfilled(datastore, KIND)) {
+            return new EmailIndex();
+        }
+        List<String> emails = new ArrayList<>(users.size());
+        for (User user : users) {
+            emails.add(user.getEmail());
+        }
+        return UniqueEmail.legacyOwners(datastore, KIND, emails);
+    }
+
     public List<User> getAllUsers() {
         Query<Entity> query = Query.newEntityQueryBuilder()
                 .setKind(KIND)
@@ -86,75 +304,462 @@ public class DatastoreService {
         return users;
     }
 
-    public List<User> searchUsers(String searchTerm) {
-        List<User> allUsers = getAllUsers();
-        List<User> filteredUsers = new ArrayList<>();
+    /**
+     * Lazily iterate every user; entities are fetched batch by batch as the iterator advances
+     */
+    @Override
+    public Iterator<User> iterateUsers() {
+        Query<Entity> query = Query.newEntityQueryBuilder()
+                .setKind(KIND)
+                .build();
+
+        return Iterators.transform(datastore.run(query), DatastoreService::entityToUser);
+    }
+
+    /**
+     * Read one page of users, newest first, resuming from an opaque cursor.
+     * Unlike an offset, the cursor does not re-read the skipped entities.
+     */
+    @Override
+    public UserPage getUsersPage(int pageSize, String cursor) {
+        EntityQuery.Builder builder = Query.newEntityQueryBuilder()
+                .setKind(KIND)
+                .setOrderBy(StructuredQuery.OrderBy.desc("createdAt"))
+                .setLimit(pageSize);
+
+        if (cursor != null && !cursor.isEmpty()) {
+            builder.setStartCursor(Cursor.fromUrlSafe(cursor));
+        }
+
+        QueryResults<Entity> results = datastore.run(builder.build());
+        List<User> users = new ArrayList<>(pageSize);
+
+        while (results.hasNext()) {
+            users.add(entityToUser(results.next()));
+        }
+
+        String nextCursor = null;
+        if (users.size() == pageSize
+                && results.getMoreResults() != QueryResultBatch.MoreResultsType.NO_MORE_RESULTS) {
+            nextCursor = results.getCursorAfter().toUrlSafe();
+        }
+
+        return new UserPage(users, nextCursor);
+    }
+
+    /**
+     * Read users changed at or after the given time, oldest change first.
+     * Uses the built-in single-property index on updatedAt.
+     */
+    @Override
+    public UserPage getUsersUpdatedSince(Date since, int pageSize, String cursor) {
+        EntityQuery.Builder builder = Query.newEntityQueryBuilder()
+                .setKind(KIND)
+                .setFilter(StructuredQuery.PropertyFilter.ge("updatedAt", Timestamp.of(since)))
+                .setOrderBy(StructuredQuery.OrderBy.asc("updatedAt"))
+                .setLimit(pageSize);
+
+        if (cursor != null && !cursor.isEmpty()) {
+            builder.setStartCursor(Cursor.fromUrlSafe(cursor));
+        }
+
+        QueryResults<Entity> results = datastore.run(builder.build());
+        List<User> users = new ArrayList<>(pageSize);
+
+        while (results.hasNext()) {
+            users.add(entityToUser(results.next()));
+        }
+
+        String nextCursor = null;
+        if (users.size() == pageSize
+                && results.getMoreResults() != QueryResultBatch.MoreResultsType.NO_MORE_RESULTS) {
+            nextCursor = results.getCursorAfter().toUrlSafe();
+        }
+
+        return new UserPage(users, nextCursor);
+    }
+
+    /**
+     * Last updatedAt already synced to BigQuery, or the epoch if no sync has run
+     */
+    public Date getMigrationWatermark() {
+        Entity entity = datastore.get(watermarkKey());
+        if (entity == null) {
+            return new Date(0);
+        }
+        return new Date(entity.getTimestamp("updatedAt").toSqlTimestamp().getTime());
+    }
+
+    public void setMigrationWatermark(Date updatedAt) {
+        Entity entity = Entity.newBuilder(watermarkKey())
+                .set("updatedAt", Timestamp.of(updatedAt))
+                .set("savedAt", Timestamp.now())
+                .build();
+        retrier.call(() -> datastore.put(entity));
+    }
 
-        String lowerSearchTerm = searchTerm.toLowerCase();
+    private Key watermarkKey() {
+        return datastore.newKeyFactory().setKind(WATERMARK_KIND).newKey(KIND);
+    }
 
-        for (User user : allUsers) {
-            if (user.getName().toLowerCase().contains(lowerSearchTerm) ||
-                    user.getEmail().toLowerCase().contains(lowerSearchTerm)) {
-                filteredUsers.add(user);
+    /**
+     * Save a migration job's settings, status, errors and checkpoint
+     */
+    public void saveMigrationJob(MigrationJob job) {
+        MigrationJob.Checkpoint checkpoint = job.checkpoint();
+        // Cursors and error messages can exceed the 1500-byte limit on indexed strings
+        Value<?> cursor = checkpoint.getCursor() != null
+                ? StringValue.newBuilder(checkpoint.getCursor()).setExcludeFromIndexes(true).build()
+                : NullValue.of();
+        Entity.Builder builder = Entity.newBuilder(migrationJobKey(job.getId()));
+        List<String> errors = job.getErrors();
+        if (!errors.isEmpty()) {
+            ListValue.Builder values = ListValue.newBuilder();
+            for (String error : errors) {
+                values.addValue(StringValue.newBuilder(error).setExcludeFromIndexes(true).build());
             }
+            builder.set("errors", values.build());
         }
+        Entity entity = builder
+                .set("mode", job.getMode().name())
+                .set("batchSize", job.getBatchSize())
+                .set("chunkSize", job.getChunkSize())
+                .set("totalUsers", job.getTotalUsers())
+                .set("status", job.getStatus().name())
+                .set("succeeded", checkpoint.getSucceeded())
+                .set("failed", checkpoint.getFailed())
+                .set("checkpointCursor", cursor)
+                .set("startedAt", job.getStartedAt())
+                .set("finishedAt", job.getFinishedAt())
+                .set("updatedAt", Timestamp.of(new Date(job.getUpdatedAt())))
+                .build();
+        retrier.call(() -> datastore.put(entity));
+    }
 
-        return filteredUsers;
+    public MigrationJob getMigrationJob(String id) {
+        Entity entity = datastore.get(migrationJobKey(id));
+        return entity != null ? entityToMigrationJob(entity) : null;
     }
 
-    public boolean updateUser(String id, User updatedUser) {
-        Key key = datastore.newKeyFactory().setKind(KIND).newKey(Long.parseLong(id));
-        Entity existingEntity = datastore.get(key);
-
-        if (existingEntity == null) {
-            return false;
-        }
-
-        Entity entity = Entity.newBuilder(key)
-                .set("name", updatedUser.getName())
-                .set("dob", Timestamp.of(updatedUser.getDob()))
-                .set("email", updatedUser.getEmail())
-                .set("password", updatedUser.getPassword())
-                .set("phone", updatedUser.getPhone())
-                .set("gender", updatedUser.getGender())
-                .set("address", updatedUser.getAddress())
-                .set("createdAt", existingEntity.getTimestamp("createdAt"))
-                .set("updatedAt", Timestamp.now())
+    private Key migrationJobKey(String id) {
+        return datastore.newKeyFactory().setKind(MIGRATION_JOB_KIND).newKey(id);
+    }
+
+    private MigrationJob entityToMigrationJob(Entity entity) {
+        MigrationJob.Checkpoint checkpoint = new MigrationJob.Checkpoint(
+                entity.isNull("checkpointCursor") ? null : entity.getString("checkpointCursor"),
+                entity.getLong("succeeded"), entity.getLong("failed"));
+
+        MigrationJob job = new MigrationJob(entity.getKey().getName(),
+                MigrationJob.Mode.valueOf(entity.getString("mode")),
+                (int) entity.getLong("batchSize"), (int) entity.getLong("chunkSize"),
+                entity.getLong("totalUsers"), checkpoint);
+        if (entity.contains("errors")) {
+            for (Value<?> error : entity.getList("errors")) {
+                job.recordFailure(0, ((StringValue) error).get());
+            }
+        }
+        job.setStatus(MigrationJob.Status.valueOf(entity.getString("status")));
+        job.restoreTimes(entity.getLong("startedAt"), entity.getLong("finishedAt"));
+        job.setUpdatedAt(entity.getTimestamp("updatedAt").toSqlTimestamp().getTime());
+        return job;
+    }
+
+    /**
+     * Save an upload job's status, counters and checkpoint row
+     */
+    public void saveUploadJob(UploadJob job) {
+        ImportResult.Checkpoint checkpoint = job.getProgress().checkpoint();
+        // Error messages can exceed the 1500-byte limit on indexed strings
+        Value<?> message = job.getMessage() != null
+                ? StringValue.newBuilder(job.getMessage()).setExcludeFromIndexes(true).build()
+                : NullValue.of();
+        Entity entity = Entity.newBuilder(uploadJobKey(job.getId()))
+                .set("fileName", job.getFileName())
+                .set("spoolPath", job.getSpoolPath())
+                .set("status", job.getStatus().name())
+                .set("message", message)
+                .set("succeeded", checkpoint.getSucceeded())
+                .set("duplicates", checkpoint.getDuplicates())
+                .set("failed", checkpoint.getFailed())
+                .set("checkpointRow", checkpoint.getRow())
+                .set("updatedAt", Timestamp.of(new Date(job.getUpdatedAt())))
                 .build();
+        retrier.call(() -> datastore.put(entity));
+    }
 
-        datastore.put(entity);
-        return true;
+    public UploadJob getUploadJob(String id) {
+        Entity entity = datastore.get(uploadJobKey(id));
+        return entity != null ? entityToUploadJob(entity) : null;
     }
 
-    public boolean deleteUser(String id) {
-        Key key = datastore.newKeyFactory().setKind(KIND).newKey(Long.parseLong(id));
-        Entity entity = datastore.get(key);
+    /**
+     * Upload jobs saved as queued or running, which a restart may have interrupted
+     */
+    public List<UploadJob> getUnfinishedUploadJobs() {
+        List<UploadJob> jobs = new ArrayList<>();
+
+        for (UploadJob.Status status : new UploadJob.Status[]{UploadJob.Status.QUEUED, UploadJob.Status.RUNNING}) {
+            Query<Entity> query = Query.newEntityQueryBuilder()
+                    .setKind(UPLOAD_JOB_KIND)
+                    .setFilter(StructuredQuery.PropertyFilter.eq("status", status.name()))
+                    .build();
+
+            QueryResults<Entity> results = datastore.run(query);
+            while (results.hasNext()) {
+                jobs.add(entityToUploadJob(results.next()));
+            }
+        }
 
-        if (entity == null) {
-            return false;
+        return jobs;
+    }
+
+    private Key uploadJobKey(String id) {
+        return datastore.newKeyFactory().setKind(UPLOAD_JOB_KIND).newKey(id);
+    }
+
+    private UploadJob entityToUploadJob(Entity entity) {
+        ImportResult progress = new ImportResult();
+        progress.restore(new ImportResult.Checkpoint((int) entity.getLong("checkpointRow"),
+                entity.getLong("succeeded"), entity.getLong("duplicates"), entity.getLong("failed")));
+
+        UploadJob job = new UploadJob(entity.getKey().getName(), entity.getString("fileName"),
+                entity.getString("spoolPath"), progress);
+        UploadJob.Status status = UploadJob.Status.valueOf(entity.getString("status"));
+        if (status == UploadJob.Status.FAILED && !entity.isNull("message")) {
+            job.fail(entity.getString("message"));
+        } else {
+            job.setStatus(status);
         }
+        job.setUpdatedAt(entity.getTimestamp("updatedAt").toSqlTimestamp().getTime());
+        return job;
+    }
+
+    /**
+     * Search name, email and phone through the in-memory index, then load
+     * only the matched page of users. The cursor is the offset into the ranked hits.
+     */
+    @Override
+    public UserPage searchUsers(String searchTerm, int pageSize, String cursor) {
+        searchIndex.ensureBuilt(this::iterateUsers);
 
-        datastore.delete(key);
-        return true;
+        int offset = cursor == null || cursor.isEmpty() ? 0 : Integer.parseInt(cursor);
+        SearchIndex.SearchResult result = searchIndex.search(searchTerm, offset, pageSize);
+
+        int nextOffset = offset + result.getIds().size();
+        String nextCursor = nextOffset < result.getTotal() ? String.valueOf(nextOffset) : null;
+
+        return new UserPage(getUsersByIds(result.getIds()), nextCursor);
     }
 
+    /**
+     * Load users with one batched get, keeping the order of the given IDs
+     */
+    @Override
+    public List<User> getUsersByIds(List<String> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Key[] keys = new Key[ids.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = keyFactory.newKey(Long.parseLong(ids.get(i)));
+        }
+
+        List<User> users = new ArrayList<>(keys.length);
+        for (Entity entity : datastore.fetch(keys)) {
+            if (entity != null) {
+                users.add(entityToUser(entity));
+            }
+        }
+
+        return users;
+    }
+
+    @Override
+    public boolean updateUser(String id, User updatedUser) {
+        Key key = keyFactory.newKey(Long.parseLong(id));
+        Key newEmailKey = UniqueEmail.keyFor(datastore, updatedUser.getEmail());
+        String passwordHash = passwordHasher.hashIfPlain(updatedUser.getPassword());
+
+        return inTransaction(txn -> {
+            List<Entity> found = txn.fetch(key, newEmailKey);
+            Entity existingEntity = found.get(0);
+
+            if (existingEntity == null) {
+                return false;
+            }
+
+            Entity emailEntity = found.get(1);
+            if (emailEntity != null && !key.equals(UniqueEmail.userKeyOf(emailEntity))) {
+                throw new IllegalStateException("Email already exists");
+            }
+
+            Key oldEmailKey = UniqueEmail.keyFor(datastore, existingEntity.getString("email"));
+            if (!oldEmailKey.equals(newEmailKey)) {
+                txn.delete(oldEmailKey);
+            }
+
+            Entity entity = Entity.newBuilder(key)
+                    .set("name", updatedUser.getName())
+                    .set("dob", Timestamp.of(updatedUser.getDob()))
+                    .set("email", updatedUser.getEmail())
+                    .set("password", passwordHash != null ? passwordHash : existingEntity.getString("password"))
+                    .set("phone", updatedUser.getPhone())
+                    .set("gender", updatedUser.getGender())
+                    .set("address", updatedUser.getAddress())
+                    .set("createdAt", existingEntity.getTimestamp("createdAt"))
+                    .set("updatedAt", Timestamp.now())
+                    .set("tokenVersion", tokenVersionOf(existingEntity) + 1)
+                    .build();
+
+            txn.put(entity, UniqueEmail.newEntity(newEmailKey, key));
+            txn.commit();
+            userCache.invalidate(id);
+            SessionTokenService.getInstance().revokeBefore(id, entity.getLong("tokenVersion"));
+            searchIndex.index(entityToUser(entity));
+            return true;
+        });
+    }
+
+    @Override
+    public boolean deleteUser(String id) {
+        Key key = keyFactory.newKey(Long.parseLong(id));
+        // Set once an attempt found the user, so a retry after a lost commit response
+        // reports the delete instead of "not found"
+        AtomicBoolean found = new AtomicBoolean();
+
+        return inTransaction(txn -> {
+            Entity entity = txn.get(key);
+
+            if (entity != null) {
+                found.set(true);
+                txn.delete(key, UniqueEmail.keyFor(datastore, entity.getString("email")));
+                userCounter.add(txn, -1);
+                txn.commit();
+            } else if (!found.get()) {
+                return false;
+            }
+
+            userCounter.committed(-1);
+            userCache.invalidate(id);
+            SessionTokenService.getInstance().revokeAll(id);
+            searchIndex.remove(id);
+            return true;
+        });
+    }
+
+    /**
+     * A direct key lookup; the user cache is per instance and may hold an older version
+     */
+    @Override
+    public Long getTokenVersion(String id) {
+        Entity entity = datastore.get(keyFactory.newKey(Long.parseLong(id)));
+        return entity != null ? tokenVersionOf(entity) : null;
+    }
+
+    /**
+     * Read from the sharded user counter rather than scanning the kind
+     */
+    @Override
     public int getUserCount() {
-        Query<Key> query = Query.newKeyQueryBuilder()
-                .setKind(KIND)
+        return (int) userCounter.get();
+    }
+
+    /**
+     * Correct the user counter against a COUNT aggregation; returns the drift
+     */
+    public long reconcileUserCount() {
+        return userCounter.reconcile();
+    }
+
+    /**
+     * Replace a password hash after a login upgraded its cost. Skipped if the
+     * password changed in the meantime; the token version is left alone so
+     * existing sessions stay valid.
+     */
+    @Override
+    public void upgradePassword(String id, String oldHash, String newHash) {
+        Key key = keyFactory.newKey(Long.parseLong(id));
+
+        inTransaction(txn -> {
+            Entity entity = txn.get(key);
+
+            if (entity == null || !oldHash.equals(entity.getString("password"))) {
+                return null;
+            }
+
+            txn.put(Entity.newBuilder(entity).set("password", newHash).build());
+            txn.commit();
+            userCache.invalidate(id);
+            return null;
+        });
+    }
+
+    /**
+     * Run the work in a transaction, starting over in a new transaction after
+     * contention or another transient error. The work may run more than once,
+     * so it must change state only through the transaction or after its commit.
+     */
+    private <T> T inTransaction(Function<Transaction, T> work) {
+        return retrier.call(() -> {
+            Transaction txn = datastore.newTransaction();
+            try {
+                return work.apply(txn);
+            } finally {
+                if (txn.isActive()) {
+                    txn.rollback();
+                }
+            }
+        });
+    }
+
+    private Entity buildEntity(Key key, User user, String passwordHash, Timestamp createdAt) {
+        return Entity.newBuilder(key)
+                .set("name", user.getName())
+                .set("dob", Timestamp.of(user.getDob()))
+                .set("email", user.getEmail())
+                .set("password", passwordHash)
+                .set("phone", user.getPhone())
+                .set("gender", user.getGender())
+                .set("address", user.getAddress())
+                .set("createdAt", createdAt)
+                .set("updatedAt", Timestamp.now())
+                .set("tokenVersion", user.getTokenVersion())
                 .build();
+    }
 
-        QueryResults<Key> results = datastore.run(query);
-        int count = 0;
+    /**
+     * Random secret stored under the given name, created on first use.
+     * The transaction makes instances racing on the first call agree on one value.
+     */
+    public byte[] getOrCreateSecret(String name) {
+        Key key = datastore.newKeyFactory().setKind(SECRET_KIND).newKey(name);
+
+        return inTransaction(txn -> {
+            Entity entity = txn.get(key);
+
+            if (entity == null) {
+                byte[] secret = new byte[32];
+                new SecureRandom().nextBytes(secret);
+                entity = Entity.newBuilder(key)
+                        .set("value", BlobValue.newBuilder(Blob.copyFrom(secret)).setExcludeFromIndexes(true).build())
+                        .build();
+                txn.put(entity);
+                txn.commit();
+            }
 
-        while (results.hasNext()) {
-            results.next();
-            count++;
-        }
+            return entity.getBlob("value").toByteArray();
+        });
+    }
 
-        return count;
+    // Users stored before session tokens existed have no version yet
+    private static long tokenVersionOf(Entity entity) {
+        return entity.contains("tokenVersion") ? entity.getLong("tokenVersion") : 0;
     }
 
-    private User entityToUser(Entity entity) {
+    // Package-private so EntityConversionBenchmark can time it without a Datastore
+    static User entityToUser(Entity entity) {
         User user = new User();
         user.setId(entity.getKey().getId().toString());
         user.setName(entity.getString("name"));
@@ -166,6 +771,7 @@ public class DatastoreService {
         user.setAddress(entity.getString("address"));
         user.setCreatedAt(new Date(entity.getTimestamp("createdAt").toSqlTimestamp().getTime()));
         user.setUpdatedAt(new Date(entity.getTimestamp("updatedAt").toSqlTimestamp().getTime()));
+        user.setTokenVersion(tokenVersionOf(entity));
         return user;
     }
 }
\ No newline at end of file
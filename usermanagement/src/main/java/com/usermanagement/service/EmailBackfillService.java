@@ -0,0 +1,90 @@
+package com.usermanagement.service;
+
+import com.usermanagement.model.EmailBackfillJob;
+import com.usermanagement.util.DaemonThreadFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the UserEmail backfill in the background.
+ *
+ * The backfill scans users a page at a time and saves its cursor and counters
+ * after every page, so status polls on any instance see its progress and a
+ * failed or interrupted backfill continues from the last page. A running
+ * backfill that has not saved for a while lost its instance and may be started again.
+ */
+public class EmailBackfillService {
+    private static EmailBackfillService instance;
+
+    private static final int PAGE_SIZE = Integer.getInteger("emailBackfill.pageSize", 100);
+    // A running backfill saved more recently than this may still be running on another instance
+    private static final long STALE_AFTER_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    private final DatastoreService datastoreService;
+    private final ExecutorService runner;
+    private volatile EmailBackfillJob current;
+
+    private EmailBackfillService() {
+        this.datastoreService = DatastoreService.getInstance();
+        this.runner = Executors.newSingleThreadExecutor(new DaemonThreadFactory("email-backfill"));
+    }
+
+    public static synchronized EmailBackfillService getInstance() {
+        if (instance == null) {
+            instance = new EmailBackfillService();
+        }
+        return instance;
+    }
+
+    /**
+     * Start or continue the backfill; a completed one is returned as it is.
+     * Throws IllegalStateException while it is running, here or on another instance.
+     */
+    public synchronized EmailBackfillJob start() {
+        EmailBackfillJob job = datastoreService.getEmailBackfill();
+        if (job.getStatus() == EmailBackfillJob.Status.COMPLETED) {
+            return job;
+        }
+        if (job.getStatus() == EmailBackfillJob.Status.RUNNING
+                && job.getUpdatedAt() > System.currentTimeMillis() - STALE_AFTER_MILLIS) {
+            throw new IllegalStateException("The email index backfill is already running");
+        }
+
+        job.setStatus(EmailBackfillJob.Status.RUNNING);
+        job.setMessage(null);
+        datastoreService.saveEmailBackfill(job);
+        current = job;
+        runner.submit(() -> run(job));
+        return job;
+    }
+
+    /**
+     * Progress of the backfill, read from Datastore unless it runs on this instance
+     */
+    public EmailBackfillJob getStatus() {
+        EmailBackfillJob job = current;
+        if (job != null && job.getStatus() == EmailBackfillJob.Status.RUNNING) {
+            return job;
+        }
+        return datastoreService.getEmailBackfill();
+    }
+
+    private void run(EmailBackfillJob job) {
+        try {
+            while (job.getStatus() == EmailBackfillJob.Status.RUNNING) {
+                datastoreService.backfillEmailPage(job, PAGE_SIZE);
+            }
+        } catch (Exception e) {
+            System.err.println("Email index backfill failed: " + e.getMessage());
+            job.fail("Backfill failed, start it again to continue: " + e.getMessage());
+            try {
+                datastoreService.saveEmailBackfill(job);
+            } catch (Exception saveError) {
+                // Left as running, so it can be started again once it looks stale
+                System.err.println("Error saving email index backfill: " + saveError.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.usermanagement.service;
+
+import com.usermanagement.util.ValidationUtil;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * In-memory set of normalized emails used to dedupe an import batch
+ * without issuing one Datastore query per row.
+ */
+public class EmailIndex {
+    private final Set<String> emails;
+
+    public EmailIndex() {
+        this.emails = new HashSet<>();
+    }
+
+    /**
+     * Check whether the email is already known
+     */
+    public boolean contains(String email) {
+        return emails.contains(ValidationUtil.normalizeEmail(email));
+    }
+
+    /**
+     * Record the email; returns false if it was already present
+     */
+    public boolean add(String email) {
+        return emails.add(ValidationUtil.normalizeEmail(email));
+    }
+
+    public int size() {
+        return emails.size();
+    }
+}
@@ -0,0 +1,246 @@
+package com.usermanagement.service;
+
+import com.usermanagement.model.ImportResult;
+import com.usermanagement.model.User;
+import com.usermanagement.repository.UserRepository;
+import com.usermanagement.util.DaemonThreadFactory;
+import com.usermanagement.util.ValidationUtil;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Imports uploaded rows through three overlapping stages.
+ *
+ * The calling thread parses rows into a bounded queue, one validator thread
+ * sanitizes, validates and dedupes them into commit-sized batches, and several
+ * writer threads store those batches concurrently. A full queue blocks the stage
+ * feeding it, so memory stays bounded and the import runs at the pace of the
+ * slowest stage instead of the sum of all three.
+ *
+ * Progress is reported through the caller's ImportResult, including a checkpoint
+ * row: the last row that is final along with every row before it. Writers finish
+ * batches out of order, so the checkpoint trails the first batch still in flight.
+ */
+public class ImportPipeline {
+    private static ImportPipeline instance;
+
+    private static final int WRITERS = Integer.getInteger("import.writers", 4);
+    private static final int ROW_QUEUE_CAPACITY = 2000;
+    private static final int BATCH_QUEUE_CAPACITY = WRITERS * 2;
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private static final Row END_OF_ROWS = new Row(0, null);
+    private static final List<Row> END_OF_BATCHES = Collections.emptyList();
+
+    private final UserRepository userRepository;
+    private final ExecutorService stages;
+
+    /**
+     * Source of parsed rows, e.g. one of the ExcelReader.readRows overloads.
+     * Returns the number of rows it emitted.
+     */
+    public interface RowSource {
+        int read(ObjIntConsumer<User> handler) throws Exception;
+    }
+
+    private ImportPipeline() {
+        this.userRepository = UserRepository.getInstance();
+        this.stages = Executors.newCachedThreadPool(new DaemonThreadFactory("import-stage"));
+    }
+
+    public static synchronized ImportPipeline getInstance() {
+        if (instance == null) {
+            instance = new ImportPipeline();
+        }
+        return instance;
+    }
+
+    /**
+     * Run the import to completion. Rows that fail validation, repeat an email
+     * from earlier in the file, clash with a stored email or fail to write are
+     * counted and reported in the result instead of aborting the import.
+     * Rows up to the result's checkpoint are skipped, so a restored result resumes.
+     */
+    public void run(RowSource source, ImportResult result) throws Exception {
+        Checkpoint checkpoint = new Checkpoint(result.getCheckpointRow());
+        BlockingQueue<Row> rows = new ArrayBlockingQueue<>(ROW_QUEUE_CAPACITY);
+        BlockingQueue<List<Row>> batches = new ArrayBlockingQueue<>(BATCH_QUEUE_CAPACITY);
+
+        List<Future<?>> writers = new ArrayList<>(WRITERS);
+        for (int i = 0; i < WRITERS; i++) {
+            writers.add(stages.submit(() -> {
+                write(batches, checkpoint, result);
+                return null;
+            }));
+        }
+        List<Future<?>> validator = Collections.singletonList(stages.submit(() -> {
+            validate(rows, batches, writers, checkpoint, result);
+            return null;
+        }));
+
+        try {
+            int startAfterRow = result.getCheckpointRow();
+            result.setTotalRecords(source.read((user, rowNumber) -> {
+                result.recordParsed();
+                if (rowNumber <= startAfterRow) {
+                    return;
+                }
+                if (!offer(rows, new Row(rowNumber, user), validator)) {
+                    throw new IllegalStateException("Import stopped: validation stage failed");
+                }
+            }));
+        } finally {
+            offer(rows, END_OF_ROWS, validator);
+            await(validator);
+            await(writers);
+            result.advanceCheckpoint(checkpoint.current());
+        }
+    }
+
+    /**
+     * Sanitize and validate each row, drop emails already seen in this file,
+     * and hand full batches to the writers
+     */
+    private void validate(BlockingQueue<Row> rows, BlockingQueue<List<Row>> batches,
+                          List<Future<?>> writers, Checkpoint checkpoint, ImportResult result)
+            throws InterruptedException {
+        EmailIndex seen = new EmailIndex();
+        List<Row> batch = new ArrayList<>(DatastoreService.BATCH_SIZE);
+
+        try {
+            for (Row row = rows.take(); row != END_OF_ROWS; row = rows.take()) {
+                User user = ValidationUtil.sanitizeUser(row.user);
+                ValidationUtil.ValidationResult validation = ValidationUtil.validateUser(user);
+
+                if (!validation.isValid()) {
+                    result.recordFailure(row.number, user.getEmail(), validation.getErrorMessage());
+                } else if (PasswordHasher.isHash(user.getPassword())) {
+                    // The writers pass hashes through, so a file must not supply one
+                    result.recordFailure(row.number, user.getEmail(), "Password cannot be in the stored hash format");
+                } else if (!seen.add(user.getEmail())) {
+                    result.recordDuplicate(row.number, user.getEmail(), "Duplicate email in file");
+                } else {
+                    if (batch.isEmpty()) {
+                        checkpoint.pending.add(row.number);
+                    }
+                    batch.add(new Row(row.number, user));
+                    if (batch.size() == DatastoreService.BATCH_SIZE) {
+                        if (!offer(batches, batch, writers)) {
+                            return;
+                        }
+                        batch = new ArrayList<>(DatastoreService.BATCH_SIZE);
+                    }
+                }
+                checkpoint.lastValidated.set(row.number);
+            }
+
+            if (!batch.isEmpty()) {
+                offer(batches, batch, writers);
+            }
+        } finally {
+            for (int i = 0; i < writers.size(); i++) {
+                offer(batches, END_OF_BATCHES, writers);
+            }
+        }
+    }
+
+    /**
+     * Store batches until the end marker arrives. Each batch is one transaction
+     * of at most 500 entities: the users, their UserEmail entities and a count shard.
+     */
+    private void write(BlockingQueue<List<Row>> batches, Checkpoint checkpoint, ImportResult result)
+            throws InterruptedException {
+        for (List<Row> batch = batches.take(); batch != END_OF_BATCHES; batch = batches.take()) {
+            List<User> users = new ArrayList<>(batch.size());
+            for (Row row : batch) {
+                users.add(row.user);
+            }
+
+            try {
+                EmailIndex taken = userRepository.createBatch(users);
+                for (Row row : batch) {
+                    if (taken.contains(row.user.getEmail())) {
+                        result.recordDuplicate(row.number, row.user.getEmail(), "Email already exists");
+                    }
+                }
+                result.recordSuccess(batch.get(batch.size() - 1).number, batch.size() - taken.size());
+            } catch (Exception e) {
+                for (Row row : batch) {
+                    result.recordFailure(row.number, row.user.getEmail(), "Write failed: " + e.getMessage());
+                }
+            }
+
+            checkpoint.pending.remove(batch.get(0).number);
+            result.advanceCheckpoint(checkpoint.current());
+        }
+    }
+
+    /**
+     * Put the item on the queue, waiting while it is full.
+     * Returns false if every consumer of the queue has already stopped.
+     */
+    private static <T> boolean offer(BlockingQueue<T> queue, T item, List<Future<?>> consumers) {
+        try {
+            while (!queue.offer(item, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (consumers.stream().allMatch(Future::isDone)) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Import interrupted", e);
+        }
+    }
+
+    private static void await(List<Future<?>> stage) throws Exception {
+        for (Future<?> future : stage) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Tracks the first row of every batch not yet written, including the one
+     * the validator is still filling
+     */
+    private static class Checkpoint {
+        private final ConcurrentSkipListSet<Integer> pending = new ConcurrentSkipListSet<>();
+        private final AtomicInteger lastValidated;
+
+        Checkpoint(int startRow) {
+            this.lastValidated = new AtomicInteger(startRow);
+        }
+
+        int current() {
+            // Read the validator's position first: a batch it has started is already pending
+            int validated = lastValidated.get();
+            Integer firstPending = pending.ceiling(Integer.MIN_VALUE);
+            return firstPending != null ? Math.min(validated, firstPending - 1) : validated;
+        }
+    }
+
+    /**
+     * A parsed user and the spreadsheet row it came from
+     */
+    private static class Row {
+        private final int number;
+        private final User user;
+
+        Row(int number, User user) {
+            this.number = number;
+            this.user = user;
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.usermanagement.service;
+
+import com.google.cloud.datastore.Datastore;
+import com.google.cloud.datastore.DatastoreOptions;
+import com.google.cloud.datastore.IncompleteKey;
+import com.google.cloud.datastore.Key;
+import com.google.cloud.datastore.KeyFactory;
+import com.usermanagement.util.DaemonThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out complete keys for one kind from a local pool of pre-allocated IDs.
+ *
+ * IDs are reserved in blocks with a single allocateId call and taken from a
+ * lock-free queue. When the pool runs low a background thread reserves the next
+ * block, so writes rarely wait on an allocation RPC. IDs left in the pool when
+ * the instance stops are simply never used.
+ */
+public class KeyAllocator {
+    private static final Map<String, KeyAllocator> ALLOCATORS = new ConcurrentHashMap<>();
+    private static final ExecutorService REFILLS =
+            Executors.newSingleThreadExecutor(new DaemonThreadFactory("key-refill"));
+
+    private static final int BLOCK_SIZE = Integer.getInteger("datastore.idBlockSize", 500);
+    private static final int LOW_WATER_MARK = BLOCK_SIZE / 4;
+
+    private final Datastore datastore;
+    private final KeyFactory keyFactory;
+    private final String kind;
+    private final ConcurrentLinkedQueue<Key> pool = new ConcurrentLinkedQueue<>();
+    // ConcurrentLinkedQueue.size() walks the queue, so the count is kept separately
+    private final AtomicInteger available = new AtomicInteger();
+    private final AtomicBoolean refilling = new AtomicBoolean();
+
+    private KeyAllocator(Datastore datastore, String kind) {
+        this.datastore = datastore;
+        this.keyFactory = datastore.newKeyFactory().setKind(kind);
+        this.kind = kind;
+    }
+
+    /**
+     * Shared allocator for the kind in the client's database, so every writer draws from the same pool
+     */
+    public static KeyAllocator forKind(Datastore datastore, String kind) {
+        return ALLOCATORS.computeIfAbsent(scopeOf(datastore) + kind, k -> new KeyAllocator(datastore, kind));
+    }
+
+    /**
+     * Registry key prefix for the database a client talks to. Clients are wrapped
+     * in proxies that do not equal themselves, so the options stand in for them.
+     */
+    static String scopeOf(Datastore datastore) {
+        DatastoreOptions options = datastore.getOptions();
+        return options.getHost() + "/" + options.getProjectId() + "/" + options.getNamespace() + "/";
+    }
+
+    public Key next() {
+        return next(1).get(0);
+    }
+
+    /**
+     * Take count keys from the pool. Any shortfall is allocated on the
+     * caller's thread with one call per block.
+     */
+    public List<Key> next(int count) {
+        List<Key> keys = new ArrayList<>(count);
+        Key key;
+
+        while (keys.size() < count && (key = pool.poll()) != null) {
+            available.decrementAndGet();
+            keys.add(key);
+        }
+
+        if (keys.size() < count) {
+            keys.addAll(allocate(count - keys.size()));
+        }
+
+        if (available.get() < LOW_WATER_MARK) {
+            scheduleRefill();
+        }
+
+        return keys;
+    }
+
+    private void scheduleRefill() {
+        if (!refilling.compareAndSet(false, true)) {
+            return;
+        }
+
+        REFILLS.execute(() -> {
+            try {
+                List<Key> block = allocate(BLOCK_SIZE);
+                pool.addAll(block);
+                available.addAndGet(block.size());
+            } catch (Exception e) {
+                System.err.println("Error pre-allocating " + kind + " IDs: " + e.getMessage());
+            } finally {
+                refilling.set(false);
+            }
+        });
+    }
+
+    private List<Key> allocate(int count) {
+        List<Key> keys = new ArrayList<>(count);
+
+        for (int start = 0; start < count; start += BLOCK_SIZE) {
+            IncompleteKey[] incompleteKeys = new IncompleteKey[Math.min(BLOCK_SIZE, count - start)];
+            for (int i = 0; i < incompleteKeys.length; i++) {
+                incompleteKeys[i] = keyFactory.newKey();
+            }
+            keys.addAll(datastore.allocateId(incompleteKeys));
+        }
+
+        return keys;
+    }
+}
@@ -0,0 +1,413 @@
+package com.usermanagement.service;
+
+import com.usermanagement.model.MigrationJob;
+import com.usermanagement.model.User;
+import com.usermanagement.model.UserPage;
+import com.usermanagement.repository.UserRepository;
+import com.usermanagement.util.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Runs bulk migrations in the background.
+ *
+ * A coordinator thread per job reads users one cursor-sized chunk at a time,
+ * splits the chunk into insertAll batches and hands them to a shared, bounded
+ * worker pool. The checkpoint cursor only advances once every batch of a chunk
+ * was sent; a chunk with a failed batch stops the job, so resuming it replays
+ * that chunk. At most MAX_RUNNING_JOBS jobs run at once and further starts are refused.
+ *
+ * Jobs are saved to Datastore when they start and finish and every few seconds
+ * while they run, so status polls served by another instance still find them.
+ * A running job that has not been saved for a while lost its instance; it is
+ * reported as failed and can be resumed from its checkpoint on any instance.
+ */
+public class MigrationJobService {
+    private static MigrationJobService instance;
+
+    public static final int DEFAULT_BATCH_SIZE = BigQueryService.DEFAULT_BATCH_SIZE;
+    public static final int MAX_BATCH_SIZE = 10000;
+    private static final int CHUNK_BATCHES = 4;
+    private static final int WORKERS = Integer.getInteger("migration.workers", 4);
+    private static final int MAX_RUNNING_JOBS = Integer.getInteger("migration.maxRunningJobs", 2);
+    private static final long JOB_RETENTION_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final long SAVE_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    // A running job saved more recently than this may still be running on another instance
+    private static final long STALE_AFTER_MILLIS = SAVE_INTERVAL_MILLIS * 6;
+    // updatedAt is stamped before commit, so a user can become visible after
+    // later-stamped ones were synced; each sync re-reads this far behind the watermark
+    private static final long WATERMARK_LAG_MILLIS =
+            TimeUnit.SECONDS.toMillis(Long.getLong("migration.watermarkLagSeconds", 60));
+
+    private final UserRepository userRepository;
+    private final DatastoreService datastoreService;
+    private final BigQueryService bigQueryService;
+    private final ExecutorService coordinators;
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService saves;
+    private final Map<String, MigrationJob> jobs = new ConcurrentHashMap<>();
+
+    private MigrationJobService() {
+        this.userRepository = UserRepository.getInstance();
+        this.datastoreService = DatastoreService.getInstance();
+        this.bigQueryService = BigQueryService.getInstance();
+        // Starts are refused beyond MAX_RUNNING_JOBS, so a job never waits here for long
+        this.coordinators = Executors.newFixedThreadPool(MAX_RUNNING_JOBS, new DaemonThreadFactory("migration-job"));
+
+        // Bounded queue plus caller-runs gives backpressure to the coordinator
+        this.workers = new ThreadPoolExecutor(WORKERS, WORKERS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(WORKERS * 2),
+                new DaemonThreadFactory("migration-worker"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+
+        this.saves = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("migration-checkpoint"));
+        this.saves.scheduleWithFixedDelay(this::saveRunningJobs,
+                SAVE_INTERVAL_MILLIS, SAVE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public static synchronized MigrationJobService getInstance() {
+        if (instance == null) {
+            instance = new MigrationJobService();
+        }
+        return instance;
+    }
+
+    /**
+     * Start a streaming migration of every user.
+     * Throws IllegalStateException when MAX_RUNNING_JOBS jobs are already running.
+     */
+    public synchronized MigrationJob start(int batchSize) {
+        pruneFinishedJobs();
+        checkCanStart();
+
+        int size = Math.max(1, Math.min(batchSize, MAX_BATCH_SIZE));
+        MigrationJob job = new MigrationJob(MigrationJob.Mode.STREAMING, size, size * CHUNK_BATCHES,
+                userRepository.getUserCount());
+        jobs.put(job.getId(), job);
+        save(job);
+        coordinators.submit(() -> run(job));
+        return job;
+    }
+
+    /**
+     * Start a delta sync that merges users changed since the last successful sync.
+     * Throws IllegalStateException while another delta sync is running, since both
+     * would move the same watermark, or when MAX_RUNNING_JOBS jobs are running.
+     */
+    public synchronized MigrationJob startIncremental(int chunkSize) {
+        pruneFinishedJobs();
+        if (isIncrementalRunning()) {
+            throw new IllegalStateException("An incremental sync is already running");
+        }
+        checkCanStart();
+
+        int size = Math.max(1, Math.min(chunkSize, MAX_BATCH_SIZE));
+        MigrationJob job = new MigrationJob(MigrationJob.Mode.INCREMENTAL, size, size, -1);
+        jobs.put(job.getId(), job);
+        save(job);
+        coordinators.submit(() -> run(job));
+        return job;
+    }
+
+    /**
+     * Start a full migration through a local NDJSON file and a single load job.
+     * With dryRun the file is written and checked against the table schema but not loaded.
+     * Throws IllegalStateException when MAX_RUNNING_JOBS jobs are already running.
+     */
+    public synchronized MigrationJob startLoad(boolean truncate, boolean dryRun) {
+        pruneFinishedJobs();
+        checkCanStart();
+
+        MigrationJob job = new MigrationJob(MigrationJob.Mode.LOAD, 0, 0, userRepository.getUserCount());
+        jobs.put(job.getId(), job);
+        save(job);
+        coordinators.submit(() -> {
+            try {
+                runLoad(job, truncate, dryRun);
+            } catch (Exception e) {
+                System.err.println("Migration job " + job.getId() + " failed: " + e.getMessage());
+                job.recordFailure(0, "Job failed: " + e.getMessage());
+                job.setStatus(MigrationJob.Status.FAILED);
+            } finally {
+                save(job);
+            }
+        });
+        return job;
+    }
+
+    /**
+     * Look up a job, falling back to Datastore for jobs run by another instance or before a restart
+     */
+    public MigrationJob getJob(String id) {
+        MigrationJob job = jobs.get(id);
+        return job != null ? job : loadJob(id);
+    }
+
+    private MigrationJob loadJob(String id) {
+        MigrationJob job = datastoreService.getMigrationJob(id);
+        if (job != null && job.getStatus() == MigrationJob.Status.RUNNING
+                && job.getUpdatedAt() < System.currentTimeMillis() - STALE_AFTER_MILLIS) {
+            job.recordFailure(0, "Interrupted when its instance stopped; resume it to continue from the last checkpoint");
+            job.setStatus(MigrationJob.Status.FAILED);
+        }
+        return job;
+    }
+
+    public boolean cancel(String id) {
+        MigrationJob job = jobs.get(id);
+        if (job == null || job.getStatus() != MigrationJob.Status.RUNNING) {
+            return false;
+        }
+        job.requestCancel();
+        return true;
+    }
+
+    /**
+     * Continue a cancelled or failed job from its last checkpoint.
+     * Jobs saved by another instance are resumed here once that instance stopped saving them.
+     */
+    public synchronized boolean resume(String id) {
+        MigrationJob job = getJob(id);
+        // A load job is all-or-nothing, so it is restarted rather than resumed
+        if (job == null || job.getMode() == MigrationJob.Mode.LOAD) {
+            return false;
+        }
+        if (job.getMode() == MigrationJob.Mode.INCREMENTAL && isIncrementalRunning()
+                || runningJobs() >= MAX_RUNNING_JOBS) {
+            return false;
+        }
+
+        synchronized (job) {
+            if (job.getStatus() != MigrationJob.Status.CANCELLED && job.getStatus() != MigrationJob.Status.FAILED) {
+                return false;
+            }
+            job.restart();
+        }
+
+        jobs.put(job.getId(), job);
+        save(job);
+        coordinators.submit(() -> run(job));
+        return true;
+    }
+
+    private void run(MigrationJob job) {
+        try {
+            if (job.getMode() == MigrationJob.Mode.INCREMENTAL) {
+                runIncremental(job);
+            } else {
+                runStreaming(job);
+            }
+        } catch (Exception e) {
+            System.err.println("Migration job " + job.getId() + " failed: " + e.getMessage());
+            job.recordFailure(0, "Job failed: " + e.getMessage());
+            job.setStatus(MigrationJob.Status.FAILED);
+        } finally {
+            save(job);
+        }
+    }
+
+    private void runStreaming(MigrationJob job) throws InterruptedException {
+        String cursor = job.getCheckpointCursor();
+
+        do {
+            if (job.isCancelRequested()) {
+                job.setStatus(MigrationJob.Status.CANCELLED);
+                return;
+            }
+
+            UserPage chunk = userRepository.getUsersPage(job.getChunkSize(), cursor);
+            if (!migrateChunk(job, chunk.getUsers())) {
+                job.setStatus(MigrationJob.Status.FAILED);
+                return;
+            }
+
+            cursor = chunk.getNextCursor();
+            job.advanceCheckpoint(cursor);
+        } while (cursor != null);
+
+        job.setStatus(MigrationJob.Status.COMPLETED);
+    }
+
+    /**
+     * Merge changed users chunk by chunk, saving the watermark after each chunk.
+     * The query starts WATERMARK_LAG_MILLIS before the watermark, so users whose
+     * write committed after later-stamped ones were synced are still picked up.
+     * MERGE by id makes re-merging the overlap harmless.
+     */
+    private void runIncremental(MigrationJob job) throws InterruptedException {
+        Date watermark = datastoreService.getMigrationWatermark();
+        Date since = new Date(Math.max(watermark.getTime() - WATERMARK_LAG_MILLIS, 0));
+        String cursor = null;
+
+        do {
+            if (job.isCancelRequested()) {
+                job.setStatus(MigrationJob.Status.CANCELLED);
+                return;
+            }
+
+            UserPage chunk = userRepository.getUsersUpdatedSince(since, job.getChunkSize(), cursor);
+            List<User> users = chunk.getUsers();
+
+            if (!users.isEmpty()) {
+                bigQueryService.upsertUsers(users);
+                job.recordSuccess(users.size());
+                // A resumed delta sync starts over from the watermark, so only the counters matter
+                job.advanceCheckpoint(null);
+                // The overlap can hold users older than the saved watermark
+                Date last = users.get(users.size() - 1).getUpdatedAt();
+                if (last.after(watermark)) {
+                    watermark = last;
+                    datastoreService.setMigrationWatermark(watermark);
+                }
+            }
+
+            cursor = chunk.getNextCursor();
+        } while (cursor != null);
+
+        job.setStatus(MigrationJob.Status.COMPLETED);
+    }
+
+    private void runLoad(MigrationJob job, boolean truncate, boolean dryRun)
+            throws IOException, InterruptedException {
+        Path file = Files.createTempFile("users-", ".ndjson");
+
+        try {
+            long rows;
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                Iterator<User> users = userRepository.iterateUsers();
+                rows = UserNdjsonWriter.write(new Iterator<User>() {
+                    @Override
+                    public boolean hasNext() {
+                        return !job.isCancelRequested() && users.hasNext();
+                    }
+
+                    @Override
+                    public User next() {
+                        return users.next();
+                    }
+                }, out);
+            }
+
+            if (job.isCancelRequested()) {
+                job.setStatus(MigrationJob.Status.CANCELLED);
+                return;
+            }
+
+            List<String> problems = UserNdjsonWriter.checkAgainstSchema(file, BigQueryService.USERS_SCHEMA);
+            if (!problems.isEmpty()) {
+                for (String problem : problems) {
+                    job.recordFailure(0, problem);
+                }
+                job.setStatus(MigrationJob.Status.FAILED);
+                return;
+            }
+
+            if (dryRun) {
+                job.recordSuccess(rows);
+                job.setStatus(MigrationJob.Status.COMPLETED);
+                return;
+            }
+
+            long loaded = bigQueryService.loadNdjson(file, truncate);
+            job.recordSuccess(loaded);
+            if (loaded < rows) {
+                job.recordFailure(rows - loaded, (rows - loaded) + " rows were not loaded");
+            }
+            job.setStatus(MigrationJob.Status.COMPLETED);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Send the chunk's batches concurrently and wait for all of them. Returns false
+     * if a batch was not sent, because a request failed or rows were still rejected
+     * once the retries ran out; the chunk is then left uncounted, since resuming the
+     * job sends it again. Only rows BigQuery rejected as invalid are final and counted.
+     */
+    private boolean migrateChunk(MigrationJob job, List<User> users) throws InterruptedException {
+        List<Future<BigQueryService.InsertResult>> batches = new ArrayList<>();
+
+        for (int start = 0; start < users.size(); start += job.getBatchSize()) {
+            List<User> batch = users.subList(start, Math.min(start + job.getBatchSize(), users.size()));
+            batches.add(workers.submit(() -> bigQueryService.migrateUsers(batch, batch.size())));
+        }
+
+        List<BigQueryService.InsertResult> results = new ArrayList<>(batches.size());
+        String failure = null;
+        for (Future<BigQueryService.InsertResult> batch : batches) {
+            try {
+                results.add(batch.get());
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause().getMessage();
+                }
+            }
+        }
+
+        if (failure != null) {
+            job.recordFailure(0, "Batch failed, stopped at the last checkpoint: " + failure);
+            return false;
+        }
+
+        for (BigQueryService.InsertResult result : results) {
+            job.recordSuccess(result.getSucceeded());
+            for (String error : result.getErrors()) {
+                job.recordFailure(1, error);
+            }
+        }
+        return true;
+    }
+
+    private void checkCanStart() {
+        if (runningJobs() >= MAX_RUNNING_JOBS) {
+            throw new IllegalStateException(MAX_RUNNING_JOBS + " migration jobs are already running");
+        }
+    }
+
+    private long runningJobs() {
+        return jobs.values().stream().filter(job -> job.getStatus() == MigrationJob.Status.RUNNING).count();
+    }
+
+    private boolean isIncrementalRunning() {
+        return jobs.values().stream().anyMatch(job -> job.getMode() == MigrationJob.Mode.INCREMENTAL
+                && job.getStatus() == MigrationJob.Status.RUNNING);
+    }
+
+    private void saveRunningJobs() {
+        for (MigrationJob job : jobs.values()) {
+            if (job.getStatus() == MigrationJob.Status.RUNNING) {
+                save(job);
+            }
+        }
+    }
+
+    // Locked on the job, so a periodic save cannot overwrite the final one with an older state
+    private void save(MigrationJob job) {
+        synchronized (job) {
+            try {
+                job.touch();
+                datastoreService.saveMigrationJob(job);
+            } catch (Exception e) {
+                // A missed save only means an older checkpoint is resumed
+                System.err.println("Error saving migration job " + job.getId() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private void pruneFinishedJobs() {
+        long cutoff = System.currentTimeMillis() - JOB_RETENTION_MILLIS;
+        jobs.values().removeIf(job -> job.getStatus() != MigrationJob.Status.RUNNING
+                && job.getFinishedAt() < cutoff);
+    }
+}
@@ -0,0 +1,249 @@
+package com.usermanagement.service;
+
+import com.usermanagement.util.DaemonThreadFactory;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * PBKDF2 password hashing on a dedicated, bounded pool.
+ *
+ * Hashes are stored as pbkdf2-sha512$iterations$salt$hash, so each one carries
+ * its own cost and the cost can be raised without breaking old hashes; a login
+ * against a cheaper hash returns an upgraded one. Request threads hash through
+ * a fixed pool with a short queue. When the queue is full, hash and verify throw
+ * OverloadedException and the servlets answer 429, so a login storm cannot tie
+ * up every request thread. Imports hash on a second fixed pool of IMPORT_THREADS,
+ * whose writers wait for it instead of being refused; at the default cost one
+ * thread hashes roughly ten passwords a second, so that pool sets the import rate
+ * for rows with passwords. Imported passwords use IMPORT_ITERATIONS, which an
+ * operator may lower for large imports; like any cheaper hash they are upgraded
+ * to ITERATIONS at the user's first login.
+ *
+ * Passwords stored before hashing existed are plain text; they still verify
+ * and are upgraded on the next successful login.
+ *
+ * Clients never see or supply hashes: responses leave the password out, and
+ * hash() rejects values in the stored format.
+ * Iteration counts above MAX_ITERATIONS are treated as malformed, so a planted
+ * hash cannot make a login burn unbounded CPU.
+ */
+public class PasswordHasher {
+    private static PasswordHasher instance;
+
+    private static final String PREFIX = "pbkdf2-sha512";
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA512";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 512;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // Pick with PasswordHasherBenchmark on the target instance class
+    public static final int ITERATIONS = Integer.getInteger("password.iterations", 210000);
+    private static final int MAX_ITERATIONS = Math.max(ITERATIONS,
+            Integer.getInteger("password.maxIterations", 1000000));
+    private static final int THREADS = Integer.getInteger("password.threads",
+            Runtime.getRuntime().availableProcessors());
+    private static final int QUEUE_DEPTH = Integer.getInteger("password.queueDepth", THREADS * 8);
+    // Half the cores by default, so an import leaves room for logins and requests
+    public static final int IMPORT_THREADS = Integer.getInteger("password.importThreads",
+            Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    public static final int IMPORT_ITERATIONS = Math.min(ITERATIONS,
+            Integer.getInteger("password.importIterations", ITERATIONS));
+
+    private final ThreadPoolExecutor executor;
+    private final ExecutorService importExecutor;
+
+    private PasswordHasher() {
+        this.executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_DEPTH),
+                new DaemonThreadFactory("password-hash"),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.importExecutor = Executors.newFixedThreadPool(IMPORT_THREADS, new DaemonThreadFactory("password-import"));
+    }
+
+    public static synchronized PasswordHasher getInstance() {
+        if (instance == null) {
+            instance = new PasswordHasher();
+        }
+        return instance;
+    }
+
+    /**
+     * Thrown when the hashing queue is full; the caller should retry later
+     */
+    public static class OverloadedException extends RuntimeException {
+        public OverloadedException() {
+            super("Too many concurrent password operations, try again shortly");
+        }
+    }
+
+    public static class Verification {
+        private final boolean matches;
+        private final String upgradedHash;
+
+        Verification(boolean matches, String upgradedHash) {
+            this.matches = matches;
+            this.upgradedHash = upgradedHash;
+        }
+
+        public boolean matches() {
+            return matches;
+        }
+
+        /**
+         * New hash at the current cost when the stored one was weaker, otherwise null
+         */
+        public String getUpgradedHash() {
+            return upgradedHash;
+        }
+    }
+
+    /**
+     * Hash a client's password on the bounded pool.
+     * Throws IllegalArgumentException for values in the stored hash format.
+     */
+    public String hash(String password) {
+        if (password == null) {
+            return null;
+        }
+        if (isHash(password)) {
+            throw new IllegalArgumentException("Password cannot be in the stored hash format");
+        }
+        return submit(() -> hash(password, ITERATIONS));
+    }
+
+    /**
+     * Check a login attempt on the bounded pool
+     */
+    public Verification verify(String password, String stored) {
+        return submit(() -> verifyNow(password, stored));
+    }
+
+    /**
+     * Hash on the calling thread, for repositories and background writers.
+     * Hashes are passed through, so callers must not take them from clients.
+     */
+    public String hashIfPlain(String password) {
+        if (password == null || isHash(password)) {
+            return password;
+        }
+        return hash(password, ITERATIONS);
+    }
+
+    /**
+     * Hash the plain passwords of an import batch on the import pool and wait for
+     * all of them. The queue is bounded by the import writers, each waiting on one
+     * batch. Hashes are passed through, so callers must not take them from clients.
+     */
+    public String[] hashAllIfPlain(List<String> passwords) {
+        List<Future<String>> futures = new ArrayList<>(passwords.size());
+        for (String password : passwords) {
+            futures.add(password == null || isHash(password)
+                    ? CompletableFuture.completedFuture(password)
+                    : importExecutor.submit(() -> hash(password, IMPORT_ITERATIONS)));
+        }
+
+        String[] hashes = new String[futures.size()];
+        try {
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = futures.get(i).get();
+            }
+            return hashes;
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing passwords", e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    public static boolean isHash(String value) {
+        return value != null && value.startsWith(PREFIX + "$");
+    }
+
+    /**
+     * Hash with an explicit cost on the calling thread
+     */
+    public static String hash(String password, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        byte[] hash = derive(password, salt, iterations, HASH_BITS);
+
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return PREFIX + "$" + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(hash);
+    }
+
+    private Verification verifyNow(String password, String stored) {
+        if (password == null || stored == null) {
+            return new Verification(false, null);
+        }
+
+        if (!isHash(stored)) {
+            boolean matches = MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8),
+                    stored.getBytes(StandardCharsets.UTF_8));
+            return new Verification(matches, matches ? hash(password, ITERATIONS) : null);
+        }
+
+        try {
+            String[] parts = stored.split("\\$");
+            int iterations = Integer.parseInt(parts[1]);
+            if (iterations > MAX_ITERATIONS) {
+                throw new IllegalArgumentException(iterations + " iterations exceeds the limit");
+            }
+            byte[] salt = Base64.getDecoder().decode(parts[2]);
+            byte[] expected = Base64.getDecoder().decode(parts[3]);
+
+            boolean matches = MessageDigest.isEqual(expected, derive(password, salt, iterations, expected.length * 8));
+            return new Verification(matches, matches && iterations < ITERATIONS ? hash(password, ITERATIONS) : null);
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println("Malformed password hash: " + e.getMessage());
+            return new Verification(false, null);
+        }
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations, int bits) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, bits);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot hash password", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private <T> T submit(Callable<T> task) {
+        Future<T> future;
+        try {
+            future = executor.submit(task);
+        } catch (RejectedExecutionException e) {
+            throw new OverloadedException();
+        }
+
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing password", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.usermanagement.service;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.usermanagement.model.User;
+import com.usermanagement.repository.UserRepository;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Issues and verifies signed, stateless session tokens.
+ *
+ * A token is base64url(JSON claims) + "." + base64url(HMAC-SHA256 of the claims).
+ * The claims carry the user's id, name, email, issue time, expiry and token
+ * version, so a check needs no storage access at all. Updating a user, which
+ * includes changing the password, bumps its stored token version; the writing
+ * instance also records the new minimum version, and deleting a user revokes
+ * every version. Logging out only clears the client's cookie.
+ *
+ * Other instances learn of a revocation when the token is refreshed: refresh
+ * reads the stored token version, bypassing the user cache, and refuses
+ * outdated tokens or deleted users. A revoked token therefore stays valid elsewhere for at most
+ * half its lifetime, and no token is refreshed past maxHours after login.
+ */
+public class SessionTokenService {
+    private static SessionTokenService instance;
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final String SECRET_NAME = "sessionToken";
+    public static final int TOKEN_TTL_SECONDS = 30 * 60;
+    // Absolute session length; refreshing never extends a token beyond it
+    private static final long MAX_SESSION_SECONDS = TimeUnit.HOURS.toSeconds(Long.getLong("session.maxHours", 12));
+
+    private final Gson gson = new Gson();
+    private final Map<String, Long> minimumVersions = new ConcurrentHashMap<>();
+    private volatile SecretKeySpec key;
+
+    public static synchronized SessionTokenService getInstance() {
+        if (instance == null) {
+            instance = new SessionTokenService();
+        }
+        return instance;
+    }
+
+    /**
+     * Claims of a verified token
+     */
+    public static class Principal {
+        private String id;
+        private String name;
+        private String email;
+        private long iat;
+        private long exp;
+        private long ver;
+
+        public String getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        /**
+         * Expiry in epoch seconds
+         */
+        public long getExpiresAt() {
+            return exp;
+        }
+    }
+
+    public String issue(User user) {
+        Principal claims = new Principal();
+        claims.id = user.getId();
+        claims.name = user.getName();
+        claims.email = user.getEmail();
+        claims.ver = user.getTokenVersion();
+        claims.iat = nowSeconds();
+        return seal(claims);
+    }
+
+    /**
+     * Re-sign verified claims with a fresh expiry, keeping an active session alive.
+     * Returns null if the user is gone or its stored token version has moved on,
+     * e.g. after an update on another instance; the token is then
+     * revoked on this instance too. The issue time is kept, so the expiry never
+     * passes the maximum session length.
+     */
+    public String refresh(Principal principal) {
+        Long version = UserRepository.getInstance().getTokenVersion(principal.id);
+        if (version == null) {
+            revokeAll(principal.id);
+            return null;
+        }
+        if (version != principal.ver) {
+            revokeBefore(principal.id, version);
+            return null;
+        }
+
+        Principal claims = new Principal();
+        claims.id = principal.id;
+        claims.name = principal.name;
+        claims.email = principal.email;
+        claims.ver = principal.ver;
+        claims.iat = principal.iat;
+        return seal(claims);
+    }
+
+    private String seal(Principal claims) {
+        claims.exp = Math.min(nowSeconds() + TOKEN_TTL_SECONDS, claims.iat + MAX_SESSION_SECONDS);
+        String payload = encode(gson.toJson(claims).getBytes(StandardCharsets.UTF_8));
+        return payload + "." + encode(sign(payload));
+    }
+
+    /**
+     * Check signature, expiry and version in memory; returns null for any invalid token
+     */
+    public Principal verify(String token) {
+        if (token == null) {
+            return null;
+        }
+
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+
+        String payload = token.substring(0, dot);
+        try {
+            byte[] signature = Base64.getUrlDecoder().decode(token.substring(dot + 1));
+            if (!MessageDigest.isEqual(signature, sign(payload))) {
+                return null;
+            }
+
+            Principal claims = gson.fromJson(
+                    new String(Base64.getUrlDecoder().decode(payload), StandardCharsets.UTF_8), Principal.class);
+            long now = nowSeconds();
+            // Tokens without an issue time predate the session limit and are not accepted
+            if (claims == null || claims.id == null || claims.exp <= now
+                    || claims.iat <= 0 || claims.iat + MAX_SESSION_SECONDS <= now
+                    || claims.ver < minimumVersions.getOrDefault(claims.id, 0L)) {
+                return null;
+            }
+            return claims;
+        } catch (IllegalArgumentException | JsonParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stop accepting tokens for the user whose version is below the given one
+     */
+    public void revokeBefore(String userId, long version) {
+        minimumVersions.merge(userId, version, Math::max);
+    }
+
+    public void revokeAll(String userId) {
+        revokeBefore(userId, Long.MAX_VALUE);
+    }
+
+    private byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key());
+            return mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot sign session token", e);
+        }
+    }
+
+    /**
+     * Secret from SESSION_TOKEN_SECRET, or one shared by all instances through
+     * Datastore, or a random one with the in-memory backend. Loaded once, so
+     * verification stays in memory afterwards.
+     */
+    private SecretKeySpec key() {
+        SecretKeySpec current = key;
+        if (current == null) {
+            synchronized (this) {
+                if (key == null) {
+                    String configured = System.getenv("SESSION_TOKEN_SECRET");
+                    byte[] secret;
+                    if (configured != null && !configured.isEmpty()) {
+                        secret = configured.getBytes(StandardCharsets.UTF_8);
+                    } else if (UserRepository.getInstance() instanceof DatastoreService) {
+                        secret = DatastoreService.getInstance().getOrCreateSecret(SECRET_NAME);
+                    } else {
+                        // Without Datastore the users live on this instance only, and so can the secret
+                        secret = new byte[32];
+                        new SecureRandom().nextBytes(secret);
+                    }
+                    key = new SecretKeySpec(secret, HMAC_ALGORITHM);
+                }
+                current = key;
+            }
+        }
+        return current;
+    }
+
+    private static long nowSeconds() {
+        return TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
@@ -0,0 +1,315 @@
+package com.usermanagement.service;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.datastore.*;
+import com.google.datastore.v1.QueryResultBatch;
+import com.usermanagement.model.EmailBackfillJob;
+import com.usermanagement.resilience.Retrier;
+import com.usermanagement.util.ValidationUtil;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Helpers for the UserEmail kind, whose key name is the normalized email
+ * and whose only property points at the owning User entity.
+ * Keeping it in the same transaction as the User write turns uniqueness
+ * checks into strongly consistent key lookups.
+ *
+ * Users stored before the kind existed have no UserEmail entity until the
+ * backfill has run, page by page, through backfillPage(). Until it records its
+ * completion, writers also look those users up with legacyOwners().
+ */
+public class UniqueEmail {
+    public static final String KIND = "UserEmail";
+    private static final String USER_KEY = "user";
+
+    private static final String BACKFILL_KIND = "UserEmailBackfill";
+
+    // Datastore accepts at most 1000 keys per lookup and 30 values per IN filter
+    private static final int MAX_LOOKUP_KEYS = 1000;
+    private static final int MAX_IN_VALUES = 30;
+
+    // Databases and kinds whose backfill is known to be done, so the marker is read once
+    private static final Set<String> BACKFILLED = ConcurrentHashMap.newKeySet();
+    private static final Retrier RETRIER = Retrier.forBackend("datastore");
+
+    private UniqueEmail() {
+    }
+
+    public static Key keyFor(Datastore datastore, String email) {
+        String normalized = ValidationUtil.normalizeEmail(email);
+        if (normalized.isEmpty()) {
+            throw new IllegalArgumentException("Email cannot be empty");
+        }
+        return datastore.newKeyFactory().setKind(KIND).newKey(normalized);
+    }
+
+    public static Entity newEntity(Key emailKey, Key userKey) {
+        return Entity.newBuilder(emailKey)
+                .set(USER_KEY, KeyValue.newBuilder(userKey).setExcludeFromIndexes(true).build())
+                .build();
+    }
+
+    public static Key userKeyOf(Entity emailEntity) {
+        return emailEntity.getKey(USER_KEY);
+    }
+
+    /**
+     * Look up the given emails with batched key gets and return the ones already taken
+     */
+    public static EmailIndex resolve(Datastore datastore, Collection<String> emails) {
+        EmailIndex taken = new EmailIndex();
+        List<Key> keys = new ArrayList<>();
+
+        for (String email : emails) {
+            keys.add(keyFor(datastore, email));
+
+            if (keys.size() >= MAX_LOOKUP_KEYS) {
+                addFound(datastore.fetch(keys.toArray(new Key[0])), taken);
+                keys.clear();
+            }
+        }
+
+        if (!keys.isEmpty()) {
+            addFound(datastore.fetch(keys.toArray(new Key[0])), taken);
+        }
+
+        return taken;
+    }
+
+    private static void addFound(List<Entity> entities, EmailIndex taken) {
+        for (Entity entity : entities) {
+            if (entity != null) {
+                taken.add(entity.getKey().getName());
+            }
+        }
+    }
+
+    /**
+     * Whether the backfill has completed for the kind
+     */
+    public static boolean isBackfilled(Datastore datastore, String userKind) {
+        String scope = KeyAllocator.scopeOf(datastore) + userKind;
+        if (BACKFILLED.contains(scope)) {
+            return true;
+        }
+        Entity marker = datastore.get(backfillKey(datastore, userKind));
+        if (marker != null && marker.contains("completedAt")) {
+            BACKFILLED.add(scope);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Record that every user of the kind has its UserEmail entity
+     */
+    static void markBackfilled(Datastore datastore, String userKind) {
+        EmailBackfillJob job = new EmailBackfillJob();
+        job.setStatus(EmailBackfillJob.Status.COMPLETED);
+        saveBackfill(datastore, userKind, job);
+    }
+
+    /**
+     * Normalized emails among the given ones that a user of the kind is stored with,
+     * as given or normalized. Runs eventually consistent IN queries, which take at
+     * most MAX_IN_VALUES values each, so it is needed only while isBackfilled() is false.
+     */
+    public static EmailIndex legacyOwners(Datastore datastore, String userKind, Collection<String> emails) {
+        Set<String> values = new LinkedHashSet<>();
+        for (String email : emails) {
+            values.add(email);
+            values.add(ValidationUtil.normalizeEmail(email));
+        }
+
+        List<Key> owners = new ArrayList<>();
+        List<Value<?>> chunk = new ArrayList<>();
+        for (String value : values) {
+            chunk.add(StringValue.of(value));
+            if (chunk.size() == MAX_IN_VALUES) {
+                owners.addAll(keysWithEmail(datastore, userKind, chunk));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            owners.addAll(keysWithEmail(datastore, userKind, chunk));
+        }
+
+        // Key queries cannot say which value matched, so the few owners found are read back
+        EmailIndex taken = new EmailIndex();
+        for (int start = 0; start < owners.size(); start += MAX_LOOKUP_KEYS) {
+            List<Key> keys = owners.subList(start, Math.min(start + MAX_LOOKUP_KEYS, owners.size()));
+            for (Entity user : datastore.fetch(keys.toArray(new Key[0]))) {
+                if (user != null && user.contains("email")) {
+                    taken.add(user.getString("email"));
+                }
+            }
+        }
+        return taken;
+    }
+
+    /**
+     * Key of a user of the kind stored with this email, as given or normalized, or null
+     */
+    public static Key legacyOwner(Datastore datastore, String userKind, String email) {
+        Set<Value<?>> values = new LinkedHashSet<>();
+        values.add(StringValue.of(email));
+        values.add(StringValue.of(ValidationUtil.normalizeEmail(email)));
+
+        List<Key> owners = keysWithEmail(datastore, userKind, new ArrayList<>(values));
+        return owners.isEmpty() ? null : owners.get(0);
+    }
+
+    private static List<Key> keysWithEmail(Datastore datastore, String userKind, List<Value<?>> emails) {
+        KeyQuery query = Query.newKeyQueryBuilder()
+                .setKind(userKind)
+                .setFilter(StructuredQuery.PropertyFilter.in("email", ListValue.of(emails)))
+                .build();
+
+        List<Key> keys = new ArrayList<>();
+        datastore.run(query).forEachRemaining(keys::add);
+        return keys;
+    }
+
+    private static Key backfillKey(Datastore datastore, String userKind) {
+        return datastore.newKeyFactory().setKind(BACKFILL_KIND).newKey(userKind);
+    }
+
+    /**
+     * Saved progress of the kind's backfill, or a job that has not started
+     */
+    public static EmailBackfillJob loadBackfill(Datastore datastore, String userKind) {
+        Entity entity = datastore.get(backfillKey(datastore, userKind));
+        EmailBackfillJob job = new EmailBackfillJob();
+        if (entity == null) {
+            return job;
+        }
+
+        // Markers written before progress was saved only hold completedAt
+        job.setStatus(entity.contains("status")
+                ? EmailBackfillJob.Status.valueOf(entity.getString("status"))
+                : EmailBackfillJob.Status.COMPLETED);
+        if (entity.contains("cursor") && !entity.isNull("cursor")) {
+            job.setCursor(entity.getString("cursor"));
+        }
+        if (entity.contains("scanned")) {
+            job.setCounts(entity.getLong("scanned"), entity.getLong("written"));
+        }
+        if (entity.contains("message") && !entity.isNull("message")) {
+            job.setMessage(entity.getString("message"));
+        }
+        if (entity.contains("updatedAt")) {
+            job.setUpdatedAt(entity.getTimestamp("updatedAt").toSqlTimestamp().getTime());
+        }
+        return job;
+    }
+
+    /**
+     * Save the backfill's progress; a completed job also records that writers can
+     * stop looking up legacy owners
+     */
+    public static void saveBackfill(Datastore datastore, String userKind, EmailBackfillJob job) {
+        job.touch();
+        // Cursors and error messages can exceed the 1500-byte limit on indexed strings
+        Entity.Builder builder = Entity.newBuilder(backfillKey(datastore, userKind))
+                .set("status", job.getStatus().name())
+                .set("cursor", job.getCursor() != null
+                        ? StringValue.newBuilder(job.getCursor()).setExcludeFromIndexes(true).build()
+                        : NullValue.of())
+                .set("scanned", job.getScanned())
+                .set("written", job.getWritten())
+                .set("message", job.getMessage() != null
+                        ? StringValue.newBuilder(job.getMessage()).setExcludeFromIndexes(true).build()
+                        : NullValue.of())
+                .set("updatedAt", Timestamp.of(new Date(job.getUpdatedAt())));
+        if (job.getStatus() == EmailBackfillJob.Status.COMPLETED) {
+            builder.set("completedAt", Timestamp.now());
+        }
+
+        Entity entity = builder.build();
+        RETRIER.call(() -> datastore.put(entity));
+        if (job.getStatus() == EmailBackfillJob.Status.COMPLETED) {
+            BACKFILLED.add(KeyAllocator.scopeOf(datastore) + userKind);
+        }
+    }
+
+    /**
+     * Create the missing UserEmail entities for the next page of up to pageSize
+     * users after the job's cursor, then move the cursor past the page and save
+     * the job. The job is completed once the scan reaches the end.
+     * When legacy data holds duplicate emails the first user scanned keeps the address.
+     */
+    public static void backfillPage(Datastore datastore, String userKind, EmailBackfillJob job, int pageSize) {
+        ProjectionEntityQuery.Builder builder = Query.newProjectionEntityQueryBuilder()
+                .setKind(userKind)
+                .setProjection("email")
+                .setLimit(pageSize);
+        if (job.getCursor() != null) {
+            builder.setStartCursor(Cursor.fromUrlSafe(job.getCursor()));
+        }
+
+        QueryResults<ProjectionEntity> results = datastore.run(builder.build());
+        Map<String, Key> pending = new LinkedHashMap<>();
+        int scanned = 0;
+
+        while (results.hasNext()) {
+            ProjectionEntity user = results.next();
+            scanned++;
+            String email = ValidationUtil.normalizeEmail(user.getString("email"));
+            if (!email.isEmpty()) {
+                pending.putIfAbsent(email, user.getKey());
+            }
+        }
+
+        int written = pending.isEmpty() ? 0 : writeMissing(datastore, pending);
+        boolean done = scanned < pageSize
+                || results.getMoreResults() == QueryResultBatch.MoreResultsType.NO_MORE_RESULTS;
+
+        job.advance(done ? null : results.getCursorAfter().toUrlSafe(), scanned, written);
+        if (done) {
+            job.setStatus(EmailBackfillJob.Status.COMPLETED);
+        }
+        saveBackfill(datastore, userKind, job);
+    }
+    private static int writeMissing(Datastore datastore, Map<String, Key> userKeysByEmail) {
+        EmailIndex taken = resolve(datastore, userKeysByEmail.keySet());
+        int written = 0;
+
+        for (Map.Entry<String, Key> entry : userKeysByEmail.entrySet()) {
+            if (!taken.contains(entry.getKey()) && claim(datastore, entry.getKey(), entry.getValue())) {
+                written++;
+            }
+        }
+
+        return written;
+    }
+
+    /**
+     * Write one UserEmail entity in a transaction, unless a user write created it
+     * since the lookup or the user no longer has the email
+     */
+    private static boolean claim(Datastore datastore, String email, Key userKey) {
+        Key emailKey = keyFor(datastore, email);
+
+        return RETRIER.call(() -> {
+            Transaction txn = datastore.newTransaction();
+            try {
+                List<Entity> found = txn.fetch(emailKey, userKey);
+                Entity user = found.get(1);
+                if (found.get(0) != null || user == null || !user.contains("email")
+                        || !email.equals(ValidationUtil.normalizeEmail(user.getString("email")))) {
+                    return false;
+                }
+
+                txn.put(newEntity(emailKey, userKey));
+                txn.commit();
+                return true;
+            } finally {
+                if (txn.isActive()) {
+                    txn.rollback();
+                }
+            }
+        });
+    }
+}
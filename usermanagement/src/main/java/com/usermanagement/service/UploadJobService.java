@@ -0,0 +1,157 @@
+package com.usermanagement.service;
+
+import com.usermanagement.model.UploadJob;
+import com.usermanagement.util.DaemonThreadFactory;
+import com.usermanagement.util.ExcelReader;
+import org.apache.commons.fileupload.FileItem;
+
+import java.io.File;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * Runs spreadsheet imports in the background.
+ *
+ * Uploaded files are spooled to a local directory and imported through the
+ * ImportPipeline by a small fixed pool, so the upload request returns as soon
+ * as the file is on disk. Unfinished jobs save their checkpoint row, with the
+ * counters of the rows up to it, to Datastore every few seconds. On startup, jobs whose last save is older than a few
+ * intervals are resumed from that row if their file is still on this disk.
+ */
+public class UploadJobService {
+    private static UploadJobService instance;
+
+    private static final int RUNNERS = Integer.getInteger("upload.jobs", 2);
+    private static final long CHECKPOINT_INTERVAL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    // A job saved more recently than this may still be running on another instance
+    private static final long STALE_AFTER_MILLIS = CHECKPOINT_INTERVAL_MILLIS * 6;
+    private static final long JOB_RETENTION_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final DatastoreService datastoreService;
+    private final ImportPipeline importPipeline;
+    private final File spoolDirectory;
+    private final ExecutorService runners;
+    private final ScheduledExecutorService checkpoints;
+    private final Map<String, UploadJob> jobs = new ConcurrentHashMap<>();
+
+    private UploadJobService() {
+        this.datastoreService = DatastoreService.getInstance();
+        this.importPipeline = ImportPipeline.getInstance();
+        this.spoolDirectory = new File(System.getProperty("upload.spool.dir",
+                new File(System.getProperty("java.io.tmpdir"), "user-uploads").getPath()));
+        this.spoolDirectory.mkdirs();
+
+        this.runners = Executors.newFixedThreadPool(RUNNERS, new DaemonThreadFactory("upload-job"));
+        this.checkpoints = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("upload-checkpoint"));
+        this.checkpoints.scheduleWithFixedDelay(this::saveUnfinishedJobs,
+                CHECKPOINT_INTERVAL_MILLIS, CHECKPOINT_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+
+        resumeInterruptedJobs();
+    }
+
+    public static synchronized UploadJobService getInstance() {
+        if (instance == null) {
+            instance = new UploadJobService();
+        }
+        return instance;
+    }
+
+    /**
+     * Directory uploads should be spooled to, so moving them into a job is a rename
+     */
+    public File getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    /**
+     * Move the uploaded file into the spool directory and queue its import
+     */
+    public UploadJob submit(FileItem item) throws Exception {
+        pruneFinishedJobs();
+
+        File spoolFile = new File(spoolDirectory, "upload-" + UUID.randomUUID() + ".xlsx");
+        item.write(spoolFile);
+
+        UploadJob job = new UploadJob(item.getName(), spoolFile.getPath());
+        jobs.put(job.getId(), job);
+        save(job);
+        runners.submit(() -> run(job));
+        return job;
+    }
+
+    /**
+     * Look up a job, falling back to Datastore for jobs run before a restart
+     */
+    public UploadJob getJob(String id) {
+        UploadJob job = jobs.get(id);
+        return job != null ? job : datastoreService.getUploadJob(id);
+    }
+
+    private void run(UploadJob job) {
+        File file = new File(job.getSpoolPath());
+
+        try {
+            job.setStatus(UploadJob.Status.RUNNING);
+            save(job);
+            importPipeline.run(handler -> ExcelReader.readRows(file, handler), job.getProgress());
+            job.setStatus(UploadJob.Status.COMPLETED);
+        } catch (Exception e) {
+            System.err.println("Upload job " + job.getId() + " failed: " + e.getMessage());
+            job.fail("Error processing file: " + e.getMessage());
+        } finally {
+            save(job);
+            file.delete();
+        }
+    }
+
+    /**
+     * Requeue jobs a restart interrupted. Jobs whose file did not survive are failed.
+     */
+    private void resumeInterruptedJobs() {
+        try {
+            long staleBefore = System.currentTimeMillis() - STALE_AFTER_MILLIS;
+
+            for (UploadJob job : datastoreService.getUnfinishedUploadJobs()) {
+                if (job.getUpdatedAt() > staleBefore) {
+                    continue;
+                }
+
+                if (new File(job.getSpoolPath()).isFile()) {
+                    job.setStatus(UploadJob.Status.QUEUED);
+                    jobs.put(job.getId(), job);
+                    save(job);
+                    runners.submit(() -> run(job));
+                } else {
+                    job.fail("Uploaded file is no longer available; upload it again");
+                    save(job);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error resuming upload jobs: " + e.getMessage());
+        }
+    }
+
+    private void saveUnfinishedJobs() {
+        for (UploadJob job : jobs.values()) {
+            if (!job.isFinished()) {
+                save(job);
+            }
+        }
+    }
+
+    private void save(UploadJob job) {
+        try {
+            job.touch();
+            datastoreService.saveUploadJob(job);
+        } catch (Exception e) {
+            // A missed checkpoint only means more rows are redone on resume
+            System.err.println("Error saving upload job " + job.getId() + ": " + e.getMessage());
+        }
+    }
+
+    private void pruneFinishedJobs() {
+        long cutoff = System.currentTimeMillis() - JOB_RETENTION_MILLIS;
+        jobs.values().removeIf(job -> job.isFinished() && job.getUpdatedAt() < cutoff);
+    }
+}
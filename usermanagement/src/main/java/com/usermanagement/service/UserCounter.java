@@ -0,0 +1,230 @@
+package com.usermanagement.service;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.datastore.*;
+import com.google.cloud.datastore.aggregation.Aggregation;
+import com.usermanagement.resilience.Retrier;
+import com.usermanagement.util.DaemonThreadFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Number of users in a kind, kept in a sharded counter.
+ *
+ * Writes that add or remove users call add() inside their own transaction, so
+ * the count commits or rolls back with them. Each call updates one random shard,
+ * which spreads concurrent writers over separate entities. A read sums all
+ * shards with one batched get and is cached for a few seconds; writes through
+ * this instance adjust the cached value straight away.
+ *
+ * Writes that skip the counter, such as deleting a whole kind, leave it wrong.
+ * A background pass compares it with a COUNT aggregation and writes the
+ * difference to shard 0, reading the shards in the transaction that writes it.
+ * A write that commits between the COUNT and that transaction can throw the
+ * correction off, and the next pass fixes it. The first read on an unseeded
+ * counter runs the same pass once, while other readers wait for it.
+ */
+public class UserCounter {
+    private static final Map<String, UserCounter> COUNTERS = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService RECONCILES =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("user-count"));
+
+    private static final String SHARD_KIND = "UserCountShard";
+    private static final int SHARDS = Integer.getInteger("userCount.shards", 20);
+    private static final long CACHE_MILLIS = TimeUnit.SECONDS.toMillis(Long.getLong("userCount.cacheSeconds", 10));
+    private static final long RECONCILE_MINUTES = Long.getLong("userCount.reconcileMinutes", 60);
+
+    private final Datastore datastore;
+    private final String kind;
+    private final KeyFactory shardKeys;
+
+    private final Retrier retrier;
+    private final Object seedLock = new Object();
+
+    private long cachedCount;
+    private long cachedUntil;
+    private volatile boolean seeded;
+
+    private UserCounter(Datastore datastore, String kind) {
+        this.datastore = datastore;
+        this.kind = kind;
+        this.shardKeys = datastore.newKeyFactory().setKind(SHARD_KIND);
+        this.retrier = Retrier.forBackend("datastore");
+    }
+
+    /**
+     * Shared counter for the kind in the client's database, so every writer adjusts the same cached count
+     */
+    public static UserCounter forKind(Datastore datastore, String kind) {
+        return COUNTERS.computeIfAbsent(KeyAllocator.scopeOf(datastore) + kind, k -> {
+            UserCounter counter = new UserCounter(datastore, kind);
+            RECONCILES.scheduleWithFixedDelay(counter::reconcileQuietly,
+                    RECONCILE_MINUTES, RECONCILE_MINUTES, TimeUnit.MINUTES);
+            return counter;
+        });
+    }
+
+    /**
+     * Current count, from the cache when it is fresh
+     */
+    public long get() {
+        synchronized (this) {
+            if (System.currentTimeMillis() < cachedUntil) {
+                return cachedCount;
+            }
+        }
+
+        if (!seeded) {
+            seed();
+        }
+
+        long count = sumShards();
+        synchronized (this) {
+            cachedCount = count;
+            cachedUntil = System.currentTimeMillis() + CACHE_MILLIS;
+        }
+        return count;
+    }
+
+    /**
+     * Add delta to a random shard as part of the caller's transaction.
+     * Call committed() once the transaction has committed.
+     */
+    public void add(Transaction txn, long delta) {
+        Key key = shardKey(ThreadLocalRandom.current().nextInt(SHARDS));
+        Entity shard = txn.get(key);
+        txn.put(newShard(key, countOf(shard) + delta));
+    }
+
+    /**
+     * Apply a committed change to the cached count
+     */
+    public synchronized void committed(long delta) {
+        cachedCount += delta;
+    }
+
+    /**
+     * Set the counter to zero after every user was removed without going through it
+     */
+    public void reset() {
+        datastore.delete(shardKeys());
+
+        synchronized (this) {
+            cachedCount = 0;
+            cachedUntil = System.currentTimeMillis() + CACHE_MILLIS;
+        }
+    }
+
+    /**
+     * Compare the counter with a COUNT aggregation over the kind and write the
+     * difference to shard 0, creating it if needed. Returns the drift that was corrected.
+     */
+    public long reconcile() {
+        return correct(false);
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcile();
+        } catch (Exception e) {
+            System.err.println("Error reconciling " + kind + " count: " + e.getMessage());
+        }
+    }
+
+    // Readers that find the counter unseeded wait for the first of them to seed it
+    private void seed() {
+        synchronized (seedLock) {
+            if (seeded) {
+                return;
+            }
+            if (datastore.get(shardKey(0)) != null) {
+                seeded = true;
+            } else {
+                correct(true);
+            }
+        }
+    }
+
+    private long correct(boolean onlyIfUnseeded) {
+        AggregationQuery query = Query.newAggregationQueryBuilder()
+                .over(Query.newKeyQueryBuilder().setKind(kind).build())
+                .addAggregation(Aggregation.count().as("total"))
+                .build();
+        long actual = datastore.runAggregation(query).get(0).get("total");
+        long drift = retrier.call(() -> writeDrift(actual, onlyIfUnseeded));
+
+        synchronized (this) {
+            seeded = true;
+            cachedUntil = 0;
+        }
+        return drift;
+    }
+
+    /**
+     * Sum the shards in the same transaction that writes shard 0, so a concurrent
+     * add() makes the commit fail instead of being counted twice. Another instance
+     * may seed first, so seeding writes nothing once shard 0 exists.
+     */
+    private long writeDrift(long actual, boolean onlyIfUnseeded) {
+        Transaction txn = datastore.newTransaction();
+        try {
+            List<Entity> shards = txn.fetch(shardKeys());
+            Entity shard = shards.get(0);
+            if (onlyIfUnseeded && shard != null) {
+                return 0;
+            }
+
+            long drift = actual - sum(shards);
+            if (drift != 0 || shard == null) {
+                txn.put(newShard(shardKey(0), countOf(shard) + drift));
+                txn.commit();
+            }
+            return drift;
+        } finally {
+            if (txn.isActive()) {
+                txn.rollback();
+            }
+        }
+    }
+
+    private long sumShards() {
+        return sum(datastore.fetch(shardKeys()));
+    }
+
+    private Key[] shardKeys() {
+        Key[] keys = new Key[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            keys[i] = shardKey(i);
+        }
+        return keys;
+    }
+
+    private static long sum(List<Entity> shards) {
+        long total = 0;
+        for (Entity shard : shards) {
+            total += countOf(shard);
+        }
+        return total;
+    }
+
+    private Key shardKey(int shard) {
+        return shardKeys.newKey(kind + "-" + shard);
+    }
+
+    private static Entity newShard(Key key, long count) {
+        return Entity.newBuilder(key)
+                .set("count", count)
+                .set("updatedAt", Timestamp.now())
+                .build();
+    }
+
+    private static long countOf(Entity shard) {
+        return shard != null ? shard.getLong("count") : 0;
+    }
+}
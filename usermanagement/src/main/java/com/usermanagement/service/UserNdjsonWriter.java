@@ -0,0 +1,156 @@
+package com.usermanagement.service;
+
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.Schema;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+import com.usermanagement.model.User;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Writes users as newline-delimited JSON matching the BigQuery users table,
+ * one row per line, so a full export needs only one row in memory.
+ * Needs no BigQuery connection, so files can be written and checked offline.
+ */
+public class UserNdjsonWriter {
+
+    // Report only the first problems found when checking a file
+    private static final int MAX_PROBLEMS = 20;
+
+    private UserNdjsonWriter() {
+    }
+
+    /**
+     * Write every user to the given writer and return the row count
+     */
+    public static long write(Iterator<User> users, Writer out) throws IOException {
+        String migratedAt = Instant.now().toString();
+        long count = 0;
+
+        // Lenient mode lets one writer emit a top-level object per line;
+        // JsonWriter does not buffer, so the newline lands after each row
+        JsonWriter json = new JsonWriter(out);
+        json.setLenient(true);
+
+        while (users.hasNext()) {
+            writeRow(users.next(), migratedAt, json);
+            out.write('\n');
+            count++;
+        }
+
+        out.flush();
+        return count;
+    }
+
+    private static void writeRow(User user, String migratedAt, JsonWriter json) throws IOException {
+        json.beginObject();
+        json.name("id").value(user.getId());
+        json.name("name").value(user.getName());
+        json.name("dob").value(formatDate(user.getDob()));
+        json.name("email").value(user.getEmail());
+        json.name("phone").value(user.getPhone());
+        json.name("gender").value(user.getGender());
+        json.name("address").value(user.getAddress());
+        json.name("created_at").value(formatTimestamp(user.getCreatedAt()));
+        json.name("migrated_at").value(migratedAt);
+        json.endObject();
+    }
+
+    // Same local calendar date the streaming path produces with SimpleDateFormat
+    private static String formatDate(Date date) {
+        return date == null ? null : date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toString();
+    }
+
+    private static String formatTimestamp(Date date) {
+        return date == null ? null : date.toInstant().toString();
+    }
+
+    /**
+     * Check every line of an NDJSON file against the table schema.
+     * Returns a list of problems, empty when the file would load cleanly.
+     */
+    public static List<String> checkAgainstSchema(Path file, Schema schema) throws IOException {
+        List<String> problems = new ArrayList<>();
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            long lineNumber = 0;
+
+            while ((line = reader.readLine()) != null && problems.size() < MAX_PROBLEMS) {
+                lineNumber++;
+                JsonObject row;
+                try {
+                    row = JsonParser.parseString(line).getAsJsonObject();
+                } catch (RuntimeException e) {
+                    problems.add("Line " + lineNumber + ": not a JSON object");
+                    continue;
+                }
+
+                for (String name : row.keySet()) {
+                    if (!hasField(schema, name)) {
+                        problems.add("Line " + lineNumber + ": unknown column " + name);
+                    }
+                }
+
+                for (Field field : schema.getFields()) {
+                    JsonElement value = row.get(field.getName());
+                    if (value != null && !value.isJsonNull() && !matchesType(field, value)) {
+                        problems.add("Line " + lineNumber + ": " + field.getName()
+                                + " is not a valid " + field.getType().getStandardType());
+                    }
+                }
+            }
+        }
+
+        return problems;
+    }
+
+    private static boolean hasField(Schema schema, String name) {
+        for (Field field : schema.getFields()) {
+            if (field.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesType(Field field, JsonElement value) {
+        if (!value.isJsonPrimitive()) {
+            return false;
+        }
+
+        String text = value.getAsString();
+        try {
+            switch (field.getType().getStandardType()) {
+                case DATE:
+                    LocalDate.parse(text);
+                    return true;
+                case TIMESTAMP:
+                    Instant.parse(text);
+                    return true;
+                case STRING:
+                    return value.getAsJsonPrimitive().isString();
+                default:
+                    return true;
+            }
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
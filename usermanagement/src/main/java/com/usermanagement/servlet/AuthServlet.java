@@ -2,7 +2,9 @@ package com.usermanagement.servlet;
 
 import com.google.gson.Gson;
 import com.usermanagement.model.User;
-import com.usermanagement.service.DatastoreService;
+import com.usermanagement.repository.UserRepository;
+import com.usermanagement.service.PasswordHasher;
+import com.usermanagement.service.SessionTokenService;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -11,15 +13,26 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @WebServlet("/api/auth/*")
-public class AuthServlet extends HttpServlet {
-    private DatastoreService datastoreService;
+public class AuthServlet extends InstrumentedServlet {
+    private static final String TOKEN_COOKIE = "session_token";
+
+    private UserRepository userRepository;
+    private SessionTokenService sessionTokenService;
+    private PasswordHasher passwordHasher;
     private Gson gson;
 
+    public AuthServlet() {
+        super("login", "check", "logout");
+    }
+
     @Override
     public void init() throws ServletException {
-        datastoreService = DatastoreService.getInstance();
+        userRepository = UserRepository.getInstance();
+        sessionTokenService = SessionTokenService.getInstance();
+        passwordHasher = PasswordHasher.getInstance();
         gson = new Gson();
     }
 
@@ -45,6 +58,14 @@ public class AuthServlet extends HttpServlet {
             } else {
                 response.setStatus(HttpServletResponse.SC_NOT_FOUND);
             }
+        } catch (PasswordHasher.OverloadedException e) {
+            // Shed load instead of queueing more hashing work behind a full pool
+            response.setStatus(429);
+            response.setHeader("Retry-After", "1");
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", e.getMessage());
+            response.getWriter().write(gson.toJson(result));
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             Map<String, Object> result = new HashMap<>();
@@ -72,14 +93,18 @@ public class AuthServlet extends HttpServlet {
             return;
         }
 
-        User user = datastoreService.getUserByEmail(email);
+        User user = userRepository.getUserByEmail(email);
+        PasswordHasher.Verification verification =
+                user != null ? passwordHasher.verify(password, user.getPassword()) : null;
 
-        if (user != null && user.getPassword().equals(password)) {
-            // Create session
-            HttpSession session = request.getSession(true);
-            session.setAttribute("userId", user.getId());
-            session.setAttribute("userEmail", user.getEmail());
-            session.setMaxInactiveInterval(30 * 60); // 30 minutes
+        if (verification != null && verification.matches()) {
+            if (verification.getUpgradedHash() != null) {
+                upgradePassword(user, verification.getUpgradedHash());
+            }
+
+            // Signed token instead of a server-side session
+            setTokenCookie(request, response, sessionTokenService.issue(user),
+                    SessionTokenService.TOKEN_TTL_SECONDS);
 
             Map<String, Object> result = new HashMap<>();
             result.put("success", true);
@@ -100,13 +125,22 @@ public class AuthServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Store a hash at the current cost; a failure here must not fail the login
+     */
+    private void upgradePassword(User user, String newHash) {
+        try {
+            userRepository.upgradePassword(user.getId(), user.getPassword(), newHash);
+        } catch (Exception e) {
+            System.err.println("Error upgrading password hash for user " + user.getId() + ": " + e.getMessage());
+        }
+    }
+
     private void handleLogout(HttpServletRequest request, HttpServletResponse response)
             throws IOException {
 
-        HttpSession session = request.getSession(false);
-        if (session != null) {
-            session.invalidate();
-        }
+        // Only this client signs out; the user's sessions on other devices stay valid
+        setTokenCookie(request, response, "", 0);
 
         Map<String, Object> result = new HashMap<>();
         result.put("success", true);
@@ -125,24 +159,33 @@ public class AuthServlet extends HttpServlet {
         String pathInfo = request.getPathInfo();
 
         if (pathInfo != null && pathInfo.equals("/check")) {
-            HttpSession session = request.getSession(false);
+            // Verified from the token alone; storage is read only when the token is refreshed
+            SessionTokenService.Principal principal = sessionTokenService.verify(readTokenCookie(request));
+
+            // Slide the expiry once half of the token's lifetime has passed;
+            // refresh checks the stored token version, so revoked sessions end here
+            if (principal != null) {
+                long remaining = principal.getExpiresAt() - TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+                if (remaining < SessionTokenService.TOKEN_TTL_SECONDS / 2) {
+                    String refreshed = sessionTokenService.refresh(principal);
+                    if (refreshed != null) {
+                        setTokenCookie(request, response, refreshed, SessionTokenService.TOKEN_TTL_SECONDS);
+                    } else {
+                        setTokenCookie(request, response, "", 0);
+                        principal = null;
+                    }
+                }
+            }
 
             Map<String, Object> result = new HashMap<>();
 
-            if (session != null && session.getAttribute("userId") != null) {
-                String userId = (String) session.getAttribute("userId");
-                User user = datastoreService.getUserById(userId);
-
-                if (user != null) {
-                    result.put("authenticated", true);
-                    result.put("user", Map.of(
-                            "id", user.getId(),
-                            "name", user.getName(),
-                            "email", user.getEmail()
-                    ));
-                } else {
-                    result.put("authenticated", false);
-                }
+            if (principal != null) {
+                result.put("authenticated", true);
+                result.put("user", Map.of(
+                        "id", principal.getId(),
+                        "name", principal.getName(),
+                        "email", principal.getEmail()
+                ));
             } else {
                 result.put("authenticated", false);
             }
@@ -152,4 +195,26 @@ public class AuthServlet extends HttpServlet {
             response.setStatus(HttpServletResponse.SC_NOT_FOUND);
         }
     }
-}
\ No newline at end of file
+
+    static String readTokenCookie(HttpServletRequest request) {
+        Cookie[] cookies = request.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                if (TOKEN_COOKIE.equals(cookie.getName())) {
+                    return cookie.getValue();
+                }
+            }
+        }
+        return null;
+    }
+
+    private void setTokenCookie(HttpServletRequest request, HttpServletResponse response,
+                                String token, int maxAgeSeconds) {
+        Cookie cookie = new Cookie(TOKEN_COOKIE, token);
+        cookie.setPath("/");
+        cookie.setHttpOnly(true);
+        cookie.setSecure(request.isSecure());
+        cookie.setMaxAge(maxAgeSeconds);
+        response.addCookie(cookie);
+    }
+}
@@ -0,0 +1,26 @@
+package com.usermanagement.servlet;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Concurrency limit for one class of endpoints.
+ *
+ * Requests over the limit are turned away at once instead of waiting, so a
+ * burst of uploads or migrations cannot take the threads and backend
+ * connections that logins and user lookups need.
+ */
+class Bulkhead {
+    private final Semaphore permits;
+
+    Bulkhead(int limit) {
+        this.permits = new Semaphore(limit);
+    }
+
+    boolean tryAcquire() {
+        return permits.tryAcquire();
+    }
+
+    void release() {
+        permits.release();
+    }
+}
@@ -0,0 +1,168 @@
+package com.usermanagement.servlet;
+
+import com.usermanagement.metrics.Metrics;
+import com.usermanagement.metrics.RequestTrace;
+import com.usermanagement.metrics.Timer;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Base servlet that times every request by method and route.
+ *
+ * The route is the path info with every segment that is not one of the
+ * servlet's fixed names replaced by {id}, so user and job IDs do not turn into
+ * separate metrics. A request counts as failed if it throws or answers 5xx.
+ * Requests handed to an executor with dispatch() are timed until they complete.
+ */
+public abstract class InstrumentedServlet extends HttpServlet {
+    private static final int MAX_ROUTE_SEGMENTS = 3;
+
+    private final String name;
+    private final Set<String> fixedSegments;
+
+    /**
+     * Request handling that may run off the container thread
+     */
+    protected interface Handler {
+        void handle(HttpServletRequest request, HttpServletResponse response)
+                throws ServletException, IOException;
+    }
+
+    protected InstrumentedServlet(String... fixedSegments) {
+        this.name = getClass().getSimpleName().replace("Servlet", "").toLowerCase(Locale.ROOT);
+        this.fixedSegments = Set.of(fixedSegments);
+    }
+
+    @Override
+    protected void service(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        long start = System.nanoTime();
+        Timer timer = Metrics.getInstance()
+                .timer(Metrics.HTTP_REQUEST, "servlet", name, "method", request.getMethod(),
+                        "route", routeOf(request.getPathInfo()));
+        try {
+            super.service(request, response);
+        } catch (ServletException | IOException | RuntimeException e) {
+            if (request.isAsyncStarted()) {
+                request.getAsyncContext().complete();
+            }
+            timer.recordSince(start, true);
+            throw e;
+        }
+
+        if (request.isAsyncStarted()) {
+            // Completion waits for this dispatch to return, so the listener is never late
+            request.getAsyncContext().addListener(new TimingListener(timer, start));
+        } else {
+            timer.recordSince(start, response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    /**
+     * Run the handler on the executor and free the container thread meanwhile.
+     *
+     * The request trace moves with it. When the executor's queue is full the
+     * client gets 503 with Retry-After rather than waiting behind it. Requests
+     * reaching the servlet through a mapping without async support run inline.
+     */
+    protected void dispatch(HttpServletRequest request, HttpServletResponse response,
+                            Executor executor, Handler handler) throws ServletException, IOException {
+        if (!request.isAsyncSupported()) {
+            handler.handle(request, response);
+            return;
+        }
+
+        AsyncContext async = request.startAsync(request, response);
+        // No container timeout, as for a synchronous request; the backend clients time out instead
+        async.setTimeout(0);
+        RequestTrace trace = RequestTrace.current();
+
+        try {
+            executor.execute(() -> {
+                RequestTrace.attach(trace);
+                try {
+                    handler.handle(request, response);
+                } catch (Exception e) {
+                    System.err.println("Error handling " + request.getMethod() + " " + request.getRequestURI()
+                            + ": " + e.getMessage());
+                    if (!response.isCommitted()) {
+                        response.reset();
+                        response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                    }
+                } finally {
+                    RequestTrace.detach();
+                    if (trace != null) {
+                        TracingFilter.finish(trace, request, response);
+                    }
+                    async.complete();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            response.setHeader("Retry-After", "1");
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            response.getWriter().write("{\"success\":false,\"message\":\"Server busy, try again shortly\"}");
+            if (trace != null) {
+                TracingFilter.finish(trace, request, response);
+            }
+            async.complete();
+        }
+    }
+
+    String routeOf(String pathInfo) {
+        if (pathInfo == null || pathInfo.equals("/")) {
+            return "/";
+        }
+
+        String[] segments = pathInfo.substring(1).split("/");
+        if (segments.length > MAX_ROUTE_SEGMENTS) {
+            return "other";
+        }
+
+        StringBuilder route = new StringBuilder();
+        for (String segment : segments) {
+            route.append('/').append(fixedSegments.contains(segment) ? segment : "{id}");
+        }
+        return route.toString();
+    }
+
+    private static class TimingListener implements AsyncListener {
+        private final Timer timer;
+        private final long start;
+
+        TimingListener(Timer timer, long start) {
+            this.timer = timer;
+            this.start = start;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            HttpServletResponse response = (HttpServletResponse) event.getSuppliedResponse();
+            timer.recordSince(start, response.getStatus() >= HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
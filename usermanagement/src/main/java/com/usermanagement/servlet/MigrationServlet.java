@@ -1,36 +1,65 @@
 package com.usermanagement.servlet;
 
 import com.google.gson.Gson;
+import com.usermanagement.cache.CoalescingCache;
+import com.usermanagement.model.EmailBackfillJob;
+import com.usermanagement.model.MigrationJob;
 import com.usermanagement.model.User;
 import com.usermanagement.service.BigQueryService;
 import com.usermanagement.service.DatastoreService;
+import com.usermanagement.service.EmailBackfillService;
+import com.usermanagement.service.MigrationJobService;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
-import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
-@WebServlet("/api/migration/*")
-public class MigrationServlet extends HttpServlet {
+@WebServlet(urlPatterns = "/api/migration/*", asyncSupported = true)
+public class MigrationServlet extends InstrumentedServlet {
+    // Every open migration page polls /status, so the counts are shared between polls
+    private static final long STATUS_FRESH_MILLIS =
+            TimeUnit.SECONDS.toMillis(Long.getLong("migration.statusFreshSeconds", 5));
+    private static final long STATUS_STALE_MILLIS =
+            TimeUnit.SECONDS.toMillis(Long.getLong("migration.statusStaleSeconds", 60));
+
+    private final CoalescingCache<Map<String, Object>> statusCache =
+            new CoalescingCache<>(STATUS_FRESH_MILLIS, STATUS_STALE_MILLIS);
     private DatastoreService datastoreService;
     private BigQueryService bigQueryService;
+    private MigrationJobService migrationJobService;
+    private EmailBackfillService emailBackfillService;
     private Gson gson;
 
+    public MigrationServlet() {
+        super("status", "records", "jobs", "cancel", "resume", "bulk", "incremental", "load",
+                "email-index", "user-count", "user");
+    }
+
     @Override
     public void init() throws ServletException {
         datastoreService = DatastoreService.getInstance();
         bigQueryService = BigQueryService.getInstance();
+        migrationJobService = MigrationJobService.getInstance();
+        emailBackfillService = EmailBackfillService.getInstance();
         gson = new Gson();
     }
 
+    // Migration requests wait on BigQuery and Datastore, so they run on their own pool
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
+        dispatch(request, response, RequestExecutors.MIGRATION, this::handleGet);
+    }
+
+    private void handleGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
 
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
@@ -39,21 +68,34 @@ public class MigrationServlet extends HttpServlet {
 
         try {
             if (pathInfo != null && pathInfo.equals("/status")) {
-                // Get migration status
-                long migratedCount = bigQueryService.getMigratedUserCount();
-                int totalCount = datastoreService.getUserCount();
+                // Get migration status; concurrent polls share one BigQuery count
+                Map<String, Object> result = statusCache.get("status", this::loadStatus);
+                response.getWriter().write(gson.toJson(result));
+            } else if (pathInfo != null && pathInfo.startsWith("/jobs/")) {
+                // Background migration progress
+                MigrationJob job = migrationJobService.getJob(pathInfo.substring(6));
 
-                Map<String, Object> result = new HashMap<>();
-                result.put("success", true);
-                result.put("totalUsers", totalCount);
-                result.put("migratedUsers", migratedCount);
-                result.put("pendingUsers", totalCount - migratedCount);
+                Map<String, Object> result;
+                if (job != null) {
+                    result = job.toStatusMap();
+                    result.put("success", true);
+                } else {
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    result = new HashMap<>();
+                    result.put("success", false);
+                    result.put("message", "Job not found");
+                }
 
+                response.getWriter().write(gson.toJson(result));
+            } else if (pathInfo != null && pathInfo.equals("/email-index")) {
+                // UserEmail backfill progress
+                Map<String, Object> result = emailBackfillService.getStatus().toStatusMap();
+                result.put("success", true);
                 response.getWriter().write(gson.toJson(result));
             } else if (pathInfo != null && pathInfo.equals("/records")) {
                 // Get migrated records
                 String limitParam = request.getParameter("limit");
-                int limit = limitParam != null ? Integer.parseInt(limitParam) : 100;
+                int limit = limitParam != null && !limitParam.isEmpty() ? Integer.parseInt(limitParam) : 100;
 
                 List<Map<String, Object>> records = bigQueryService.getMigratedUsers(limit);
 
@@ -66,6 +108,8 @@ public class MigrationServlet extends HttpServlet {
             } else {
                 response.setStatus(HttpServletResponse.SC_NOT_FOUND);
             }
+        } catch (NumberFormatException e) {
+            writeBadRequest(response, "limit must be a number");
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             Map<String, Object> result = new HashMap<>();
@@ -75,9 +119,27 @@ public class MigrationServlet extends HttpServlet {
         }
     }
 
+    private Map<String, Object> loadStatus() throws InterruptedException {
+        long migratedCount = bigQueryService.getMigratedUserCount();
+        int totalCount = datastoreService.getUserCount();
+
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", true);
+        result.put("totalUsers", totalCount);
+        result.put("migratedUsers", migratedCount);
+        result.put("pendingUsers", totalCount - migratedCount);
+        result.put("countedAt", System.currentTimeMillis());
+        return Collections.unmodifiableMap(result);
+    }
+
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
+        dispatch(request, response, RequestExecutors.MIGRATION, this::handlePost);
+    }
+
+    private void handlePost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
 
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
@@ -86,22 +148,93 @@ public class MigrationServlet extends HttpServlet {
 
         try {
             if (pathInfo != null && pathInfo.equals("/bulk")) {
-                // Bulk migration
-                List<User> users = datastoreService.getAllUsers();
+                // Bulk migration runs in the background; clients poll /jobs/{id}
+                int batchSize = parseSize(request.getParameter("batchSize"));
 
-                if (users.isEmpty()) {
-                    Map<String, Object> result = new HashMap<>();
-                    result.put("success", false);
-                    result.put("message", "No users found in Datastore");
-                    response.getWriter().write(gson.toJson(result));
-                    return;
+                MigrationJob job = migrationJobService.start(batchSize);
+
+                Map<String, Object> result = job.toStatusMap();
+                result.put("success", true);
+                result.put("message", "Bulk migration started");
+
+                response.setStatus(HttpServletResponse.SC_ACCEPTED);
+                response.getWriter().write(gson.toJson(result));
+
+            } else if (pathInfo != null && pathInfo.equals("/incremental")) {
+                // Delta sync of users changed since the last sync
+                int chunkSize = parseSize(request.getParameter("batchSize"));
+
+                MigrationJob job = migrationJobService.startIncremental(chunkSize);
+
+                Map<String, Object> result = job.toStatusMap();
+                result.put("success", true);
+                result.put("message", "Incremental sync started");
+
+                response.setStatus(HttpServletResponse.SC_ACCEPTED);
+                response.getWriter().write(gson.toJson(result));
+
+            } else if (pathInfo != null && pathInfo.equals("/load")) {
+                // Full migration through an NDJSON file and one load job
+                boolean truncate = "truncate".equalsIgnoreCase(request.getParameter("disposition"));
+                boolean dryRun = Boolean.parseBoolean(request.getParameter("dryRun"));
+
+                MigrationJob job = migrationJobService.startLoad(truncate, dryRun);
+
+                Map<String, Object> result = job.toStatusMap();
+                result.put("success", true);
+                result.put("message", dryRun ? "Load dry run started" : "Load migration started");
+
+                response.setStatus(HttpServletResponse.SC_ACCEPTED);
+                response.getWriter().write(gson.toJson(result));
+
+            } else if (pathInfo != null && pathInfo.matches("/jobs/[^/]+/(cancel|resume)")) {
+                String[] parts = pathInfo.split("/");
+                String jobId = parts[2];
+                boolean success = parts[3].equals("cancel")
+                        ? migrationJobService.cancel(jobId)
+                        : migrationJobService.resume(jobId);
+
+                Map<String, Object> result = new HashMap<>();
+                result.put("success", success);
+                if (success) {
+                    result.put("message", "Job " + parts[3] + " requested");
+                } else {
+                    response.setStatus(migrationJobService.getJob(jobId) == null
+                            ? HttpServletResponse.SC_NOT_FOUND
+                            : HttpServletResponse.SC_CONFLICT);
+                    result.put("message", "Job cannot be " + (parts[3].equals("cancel") ? "cancelled" : "resumed"));
                 }
 
-                Map<String, Object> migrationResult = bigQueryService.bulkMigrate(users);
-                migrationResult.put("success", true);
-                migrationResult.put("message", "Bulk migration completed");
+                response.getWriter().write(gson.toJson(result));
+
+            } else if (pathInfo != null && pathInfo.equals("/email-index")) {
+                // Backfill UserEmail entities for users created before the kind existed;
+                // it runs in the background and clients poll GET /email-index
+                EmailBackfillJob job = emailBackfillService.start();
 
-                response.getWriter().write(gson.toJson(migrationResult));
+                Map<String, Object> result = job.toStatusMap();
+                result.put("success", true);
+                result.put("message", job.getStatus() == EmailBackfillJob.Status.COMPLETED
+                        ? "Email index backfill already completed"
+                        : "Email index backfill started");
+
+                if (job.getStatus() != EmailBackfillJob.Status.COMPLETED) {
+                    response.setStatus(HttpServletResponse.SC_ACCEPTED);
+                }
+                response.getWriter().write(gson.toJson(result));
+
+            } else if (pathInfo != null && pathInfo.equals("/user-count")) {
+                // Correct the sharded user counter now instead of waiting for the hourly pass
+                long drift = datastoreService.reconcileUserCount();
+                statusCache.invalidate("status");
+
+                Map<String, Object> result = new HashMap<>();
+                result.put("success", true);
+                result.put("message", "User count reconciled");
+                result.put("drift", drift);
+                result.put("totalUsers", datastoreService.getUserCount());
+
+                response.getWriter().write(gson.toJson(result));
 
             } else if (pathInfo != null && pathInfo.startsWith("/user/")) {
                 // Single user migration
@@ -118,6 +251,7 @@ public class MigrationServlet extends HttpServlet {
                 }
 
                 boolean success = bigQueryService.migrateUser(user);
+                statusCache.invalidate("status");
 
                 Map<String, Object> result = new HashMap<>();
                 if (success) {
@@ -138,6 +272,16 @@ public class MigrationServlet extends HttpServlet {
                 response.getWriter().write(gson.toJson(result));
             }
 
+        } catch (NumberFormatException e) {
+            writeBadRequest(response, "batchSize must be a number");
+        } catch (IllegalStateException e) {
+            // Another job holds the watermark, the running-job limit is reached
+            // or the email backfill is already running
+            response.setStatus(HttpServletResponse.SC_CONFLICT);
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", e.getMessage());
+            response.getWriter().write(gson.toJson(result));
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             Map<String, Object> result = new HashMap<>();
@@ -147,4 +291,20 @@ public class MigrationServlet extends HttpServlet {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    // Out-of-range sizes are clamped by MigrationJobService
+    private static int parseSize(String value) {
+        if (value == null || value.isEmpty()) {
+            return MigrationJobService.DEFAULT_BATCH_SIZE;
+        }
+        return Integer.parseInt(value);
+    }
+
+    private void writeBadRequest(HttpServletResponse response, String message) throws IOException {
+        response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", false);
+        result.put("message", message);
+        response.getWriter().write(gson.toJson(result));
+    }
+}
@@ -0,0 +1,38 @@
+package com.usermanagement.servlet;
+
+import com.usermanagement.util.DaemonThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Separately sized pools for backend-bound requests.
+ *
+ * Migration, upload and user listing requests run on their own pools rather
+ * than on container threads. A burst of slow BigQuery or Datastore work then
+ * fills its own pool and queue, and quick endpoints such as /api/auth/check
+ * keep their container threads. A full queue is rejected so the servlet can
+ * answer 503 instead of queueing without bound.
+ */
+final class RequestExecutors {
+    static final ExecutorService MIGRATION = create("migration-request",
+            Integer.getInteger("async.migrationThreads", 4));
+    static final ExecutorService UPLOAD = create("upload-request",
+            Integer.getInteger("async.uploadThreads", 4));
+    static final ExecutorService USER_READ = create("user-read",
+            Integer.getInteger("async.userReadThreads", 16));
+
+    private static final int QUEUE_PER_THREAD = 16;
+
+    private RequestExecutors() {
+    }
+
+    private static ExecutorService create(String name, int threads) {
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUE_PER_THREAD),
+                new DaemonThreadFactory(name),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+}
@@ -0,0 +1,162 @@
+package com.usermanagement.servlet;
+
+import com.usermanagement.service.SessionTokenService;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Rate limits each client and caps concurrent requests per endpoint class.
+ *
+ * Clients are keyed by the user id of their session token, or by address
+ * when signed out, and get 429 with Retry-After once their token bucket is
+ * empty. Auth, CRUD, search, upload and migration requests then each take a
+ * permit from their own bulkhead; a full bulkhead answers 503 with
+ * Retry-After, so one kind of heavy request cannot slow down the others.
+ * Asynchronous requests hold their permit until they complete.
+ *
+ * Mapped in web.xml after TracingFilter.
+ */
+public class ThrottleFilter implements Filter {
+    private static final Bulkhead AUTH = new Bulkhead(Integer.getInteger("bulkhead.auth", 64));
+    private static final Bulkhead CRUD = new Bulkhead(Integer.getInteger("bulkhead.crud", 64));
+    private static final Bulkhead SEARCH = new Bulkhead(Integer.getInteger("bulkhead.search", 32));
+    private static final Bulkhead UPLOAD = new Bulkhead(Integer.getInteger("bulkhead.upload", 8));
+    private static final Bulkhead MIGRATION = new Bulkhead(Integer.getInteger("bulkhead.migration", 8));
+
+    private static final TokenBucketLimiter RATE_LIMITER = new TokenBucketLimiter(
+            Integer.getInteger("rateLimit.perSecond", 20),
+            Integer.getInteger("rateLimit.burst", 40),
+            Integer.getInteger("rateLimit.maxKeys", 10000),
+            Long.getLong("rateLimit.sweepSeconds", 60));
+
+    private SessionTokenService sessionTokenService;
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+        sessionTokenService = SessionTokenService.getInstance();
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        HttpServletResponse httpResponse = (HttpServletResponse) response;
+
+        Bulkhead bulkhead = bulkheadFor(httpRequest);
+        if (bulkhead == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        long waitNanos = RATE_LIMITER.tryAcquire(clientKey(httpRequest));
+        if (waitNanos > 0) {
+            reject(httpResponse, 429, waitNanos, "Too many requests, slow down");
+            return;
+        }
+
+        if (!bulkhead.tryAcquire()) {
+            reject(httpResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE, TimeUnit.SECONDS.toNanos(1),
+                    "Server busy, try again shortly");
+            return;
+        }
+
+        ReleaseListener release = new ReleaseListener(bulkhead);
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            if (request.isAsyncStarted()) {
+                // Completion waits for this dispatch to return, so the listener is never late
+                request.getAsyncContext().addListener(release);
+            } else {
+                release.release();
+            }
+        }
+    }
+
+    /**
+     * Bulkhead of the endpoint class, or null for endpoints that are not throttled
+     */
+    private Bulkhead bulkheadFor(HttpServletRequest request) {
+        String servletPath = request.getServletPath();
+        String pathInfo = request.getPathInfo();
+
+        switch (servletPath) {
+            case "/api/auth":
+                return AUTH;
+            case "/api/users":
+                // Listing, search and export scan users; the rest touch one
+                if (pathInfo == null || pathInfo.equals("/") || pathInfo.equals("/export")) {
+                    return "GET".equals(request.getMethod()) ? SEARCH : CRUD;
+                }
+                return CRUD;
+            case "/api/upload":
+                return UPLOAD;
+            case "/api/migration":
+                return MIGRATION;
+            default:
+                return null;
+        }
+    }
+
+    private String clientKey(HttpServletRequest request) {
+        // Verifying the token is an HMAC in memory, with no Datastore lookup
+        SessionTokenService.Principal principal = sessionTokenService.verify(AuthServlet.readTokenCookie(request));
+        if (principal != null) {
+            return "user:" + principal.getId();
+        }
+        return "addr:" + request.getRemoteAddr();
+    }
+
+    private void reject(HttpServletResponse response, int status, long waitNanos, String message)
+            throws IOException {
+        long retryAfterSeconds = Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + 999_999_999));
+        response.setStatus(status);
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write("{\"success\":false,\"message\":\"" + message + "\"}");
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    private static class ReleaseListener implements AsyncListener {
+        private final Bulkhead bulkhead;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        ReleaseListener(Bulkhead bulkhead) {
+            this.bulkhead = bulkhead;
+        }
+
+        void release() {
+            if (released.compareAndSet(false, true)) {
+                bulkhead.release();
+            }
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+            release();
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+}
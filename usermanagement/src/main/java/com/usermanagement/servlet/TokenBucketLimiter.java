@@ -0,0 +1,96 @@
+package com.usermanagement.servlet;
+
+import com.usermanagement.util.DaemonThreadFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Token bucket per client key.
+ *
+ * Each key may send a burst of requests and then one request per 1/rate
+ * seconds. Buckets that have refilled completely hold no state worth keeping
+ * and are dropped by a background sweep every sweepSeconds, or as soon as more
+ * than maxKeys clients have been seen. Requests never wait for a sweep.
+ */
+class TokenBucketLimiter {
+    private static final ScheduledExecutorService SWEEPER =
+            Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("rate-limit-sweep"));
+
+    private final double tokensPerNano;
+    private final double burst;
+    private final int maxKeys;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+
+    TokenBucketLimiter(double perSecond, int burst, int maxKeys, long sweepSeconds) {
+        this.tokensPerNano = perSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.maxKeys = maxKeys;
+        SWEEPER.scheduleWithFixedDelay(this::requestSweep, sweepSeconds, sweepSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Take a token for the key; returns 0 if allowed, otherwise the nanoseconds until the next token
+     */
+    long tryAcquire(String key) {
+        long now = System.nanoTime();
+        long wait = buckets.computeIfAbsent(key, k -> new Bucket(now)).tryTake(now);
+
+        if (buckets.size() > maxKeys) {
+            requestSweep();
+        }
+        return wait;
+    }
+
+    private void requestSweep() {
+        if (sweeping.compareAndSet(false, true)) {
+            SWEEPER.execute(this::sweep);
+        }
+    }
+
+    private void sweep() {
+        try {
+            long now = System.nanoTime();
+            buckets.values().removeIf(bucket -> bucket.isFull(now));
+        } catch (RuntimeException e) {
+            System.err.println("Rate limit sweep failed: " + e.getMessage());
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private class Bucket {
+        private double tokens = burst;
+        private long refilledAt;
+
+        Bucket(long now) {
+            this.refilledAt = now;
+        }
+
+        synchronized long tryTake(long now) {
+            refill(now);
+            if (tokens >= 1) {
+                tokens--;
+                return 0;
+            }
+            return (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+
+        synchronized boolean isFull(long now) {
+            refill(now);
+            return tokens >= burst;
+        }
+
+        private void refill(long now) {
+            if (now > refilledAt) {
+                tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+                refilledAt = now;
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.usermanagement.servlet;
+
+import com.usermanagement.metrics.RequestTrace;
+
+import javax.servlet.*;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Traces the backend calls of every API request.
+ *
+ * The response gets a Server-Timing header with calls and time per backend
+ * operation, which browser dev tools show next to the request. The header is
+ * set when the handler finishes, or just before the response commits if that
+ * happens first, e.g. for a streamed export; it then covers the calls made before
+ * the first write or flush. Requests over the call or time budget are logged with their
+ * breakdown, so N+1 access patterns show up without a profiler. Requests
+ * continued asynchronously carry the trace to the worker thread.
+ *
+ * Mapped in web.xml ahead of ThrottleFilter, so throttled responses are traced too.
+ */
+public class TracingFilter implements Filter {
+    private static final int MAX_CALLS = Integer.getInteger("trace.maxCalls", 20);
+    private static final long MAX_MILLIS = Long.getLong("trace.maxMillis", 1000);
+
+    @Override
+    public void init(FilterConfig filterConfig) {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        HttpServletRequest httpRequest = (HttpServletRequest) request;
+        RequestTrace trace = RequestTrace.start();
+        HttpServletResponse httpResponse = new ServerTimingResponse((HttpServletResponse) response, trace);
+
+        try {
+            chain.doFilter(request, httpResponse);
+        } finally {
+            RequestTrace.detach();
+            // Requests dispatched to an executor are finished by the worker
+            if (!httpRequest.isAsyncStarted()) {
+                finish(trace, httpRequest, httpResponse);
+            }
+        }
+    }
+
+    static void finish(RequestTrace trace, HttpServletRequest request, HttpServletResponse response) {
+        if (!trace.markFinished()) {
+            return;
+        }
+
+        if (!response.isCommitted()) {
+            response.setHeader("Server-Timing", trace.toServerTiming());
+        }
+
+        long elapsedMillis = trace.getElapsedMillis();
+        if (trace.getTotalCalls() > MAX_CALLS || elapsedMillis > MAX_MILLIS) {
+            System.err.println("Request over budget: " + request.getMethod() + " " + request.getRequestURI()
+                    + " took " + elapsedMillis + "ms with " + trace.getTotalCalls() + " backend calls ("
+                    + trace.describeCalls() + ")");
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+
+    /**
+     * Sets the Server-Timing header before the first write, flush, error or redirect
+     * commits the response. finish() replaces it if the response is still uncommitted.
+     */
+    private static class ServerTimingResponse extends HttpServletResponseWrapper {
+        private final RequestTrace trace;
+        private boolean stamped;
+        private PrintWriter writer;
+        private ServletOutputStream outputStream;
+
+        ServerTimingResponse(HttpServletResponse response, RequestTrace trace) {
+            super(response);
+            this.trace = trace;
+        }
+
+        private void stamp() {
+            if (!stamped) {
+                stamped = true;
+                if (!isCommitted()) {
+                    setHeader("Server-Timing", trace.toServerTiming());
+                }
+            }
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(super.getWriter()) {
+                    @Override
+                    public void write(int c) {
+                        stamp();
+                        super.write(c);
+                    }
+
+                    @Override
+                    public void write(char[] buf, int off, int len) {
+                        stamp();
+                        super.write(buf, off, len);
+                    }
+
+                    @Override
+                    public void write(String s, int off, int len) {
+                        stamp();
+                        super.write(s, off, len);
+                    }
+
+                    @Override
+                    public void flush() {
+                        stamp();
+                        super.flush();
+                    }
+
+                    @Override
+                    public void close() {
+                        stamp();
+                        super.close();
+                    }
+                };
+            }
+            return writer;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            if (outputStream == null) {
+                ServletOutputStream target = super.getOutputStream();
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(int b) throws IOException {
+                        stamp();
+                        target.write(b);
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        stamp();
+                        target.write(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        stamp();
+                        target.flush();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        stamp();
+                        target.close();
+                    }
+
+                    @Override
+                    public boolean isReady() {
+                        return target.isReady();
+                    }
+
+                    @Override
+                    public void setWriteListener(WriteListener writeListener) {
+                        target.setWriteListener(writeListener);
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            stamp();
+            super.flushBuffer();
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            stamp();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            stamp();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            stamp();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            stamped = false;
+        }
+    }
+}
@@ -1,38 +1,95 @@
 package com.usermanagement.servlet;
 
 import com.google.gson.Gson;
-import com.usermanagement.model.User;
-import com.usermanagement.service.DatastoreService;
-import com.usermanagement.util.ExcelReader;
+import com.usermanagement.model.UploadJob;
+import com.usermanagement.service.UploadJobService;
 import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.FileUploadBase;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
-import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-@WebServlet("/api/upload")
-public class UploadServlet extends HttpServlet {
-    private DatastoreService datastoreService;
+@WebServlet(urlPatterns = "/api/upload/*", asyncSupported = true)
+public class UploadServlet extends InstrumentedServlet {
+    // App Engine rejects requests over 32MB before they reach the servlet
+    private static final long MAX_REQUEST_SIZE = 32L * 1024 * 1024;
+    // Uploads above this size are spooled to disk instead of held in memory
+    private static final int MEMORY_THRESHOLD = 1024 * 1024;
+
+    private UploadJobService uploadJobService;
     private Gson gson;
 
+    public UploadServlet() {
+        super("jobs");
+    }
+
     @Override
     public void init() throws ServletException {
-        datastoreService = DatastoreService.getInstance();
+        uploadJobService = UploadJobService.getInstance();
         gson = new Gson();
     }
 
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+        dispatch(request, response, RequestExecutors.UPLOAD, this::handleGet);
+    }
+
+    private void handleGet(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+
+        String pathInfo = request.getPathInfo();
+        Map<String, Object> result;
+
+        try {
+            if (pathInfo != null && pathInfo.startsWith("/jobs/")) {
+                // Background import progress
+                UploadJob job = uploadJobService.getJob(pathInfo.substring(6));
+
+                if (job != null) {
+                    result = job.toStatusMap();
+                    result.put("success", true);
+                } else {
+                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                    result = new HashMap<>();
+                    result.put("success", false);
+                    result.put("message", "Job not found");
+                }
+            } else {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                result = new HashMap<>();
+                result.put("success", false);
+                result.put("message", "Invalid endpoint");
+            }
+        } catch (Exception e) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", "Error: " + e.getMessage());
+        }
+
+        response.getWriter().write(gson.toJson(result));
+    }
+
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
+        dispatch(request, response, RequestExecutors.UPLOAD, this::handlePost);
+    }
+
+    private void handlePost(HttpServletRequest request, HttpServletResponse response)
+            throws ServletException, IOException {
 
         response.setContentType("application/json");
         response.setCharacterEncoding("UTF-8");
@@ -49,47 +106,31 @@ public class UploadServlet extends HttpServlet {
                 return;
             }
 
-            // Configure file upload
+            // Configure file upload; large files are spooled where the job will read them
             DiskFileItemFactory factory = new DiskFileItemFactory();
+            factory.setSizeThreshold(MEMORY_THRESHOLD);
+            factory.setRepository(uploadJobService.getSpoolDirectory());
             ServletFileUpload upload = new ServletFileUpload(factory);
-            upload.setFileSizeMax(10 * 1024 * 1024); // 10MB max
+            upload.setSizeMax(MAX_REQUEST_SIZE);
 
             // Parse request
             List<FileItem> items = upload.parseRequest(request);
 
             for (FileItem item : items) {
                 if (!item.isFormField() && item.getName().endsWith(".xlsx")) {
-                    try (InputStream inputStream = item.getInputStream()) {
-                        // Read users from Excel
-                        List<User> users = ExcelReader.readUsersFromExcel(inputStream);
-
-                        // Store users in Datastore
-                        int successCount = 0;
-                        int failCount = 0;
-
-                        for (User user : users) {
-                            try {
-                                // Check if user already exists
-                                User existingUser = datastoreService.getUserByEmail(user.getEmail());
-                                if (existingUser == null) {
-                                    datastoreService.createUser(user);
-                                    successCount++;
-                                } else {
-                                    failCount++;
-                                }
-                            } catch (Exception e) {
-                                failCount++;
-                                System.err.println("Error creating user: " + e.getMessage());
-                            }
-                        }
-
-                        result.put("success", true);
-                        result.put("message", "File uploaded successfully");
-                        result.put("totalRecords", users.size());
-                        result.put("successCount", successCount);
-                        result.put("failCount", failCount);
-                        response.setStatus(HttpServletResponse.SC_OK);
+                    UploadJob job;
+
+                    // The import runs in the background; clients poll /jobs/{id}
+                    try {
+                        job = uploadJobService.submit(item);
+                    } finally {
+                        item.delete();
                     }
+
+                    result.putAll(job.toStatusMap());
+                    result.put("success", true);
+                    result.put("message", "File uploaded, import started");
+                    response.setStatus(HttpServletResponse.SC_ACCEPTED);
                     break;
                 }
             }
@@ -100,6 +141,10 @@ public class UploadServlet extends HttpServlet {
                 response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
             }
 
+        } catch (FileUploadBase.SizeLimitExceededException e) {
+            result.put("success", false);
+            result.put("message", "Upload exceeds the " + (MAX_REQUEST_SIZE / (1024 * 1024)) + "MB request limit");
+            response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
         } catch (Exception e) {
             result.put("success", false);
             result.put("message", "Error processing file: " + e.getMessage());
@@ -109,4 +154,4 @@ public class UploadServlet extends HttpServlet {
 
         response.getWriter().write(gson.toJson(result));
     }
-}
\ No newline at end of file
+}
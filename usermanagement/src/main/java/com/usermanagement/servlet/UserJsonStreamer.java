@@ -0,0 +1,54 @@
+package com.usermanagement.servlet;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.usermanagement.model.User;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * Writes a user listing straight to the response as each user is read,
+ * so only one user is held in memory instead of the whole result set.
+ */
+class UserJsonStreamer {
+    private final Gson gson;
+
+    UserJsonStreamer(Gson gson) {
+        this.gson = gson;
+    }
+
+    /**
+     * Stream {"success":true,"users":[...],"count":n} and return the number of users written.
+     * Once the first byte is sent the status can no longer change, so callers must
+     * handle errors raised while iterating by closing the connection.
+     */
+    int write(HttpServletResponse response, Iterator<User> users) throws IOException {
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+
+        Writer out = new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8);
+        JsonWriter jsonWriter = new JsonWriter(out);
+        int count = 0;
+
+        jsonWriter.beginObject();
+        jsonWriter.name("success").value(true);
+        jsonWriter.name("users").beginArray();
+
+        while (users.hasNext()) {
+            gson.toJson(users.next(), User.class, jsonWriter);
+            count++;
+        }
+
+        jsonWriter.endArray();
+        jsonWriter.name("count").value(count);
+        jsonWriter.endObject();
+        jsonWriter.flush();
+
+        return count;
+    }
+}
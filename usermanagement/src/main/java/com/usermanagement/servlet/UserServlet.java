@@ -1,31 +1,59 @@
 package com.usermanagement.servlet;
 
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
 import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.usermanagement.cache.UserCache;
 import com.usermanagement.model.User;
-import com.usermanagement.service.DatastoreService;
+import com.usermanagement.model.UserPage;
+import com.usermanagement.repository.UserRepository;
+import com.usermanagement.service.PasswordHasher;
 
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
-import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
-@WebServlet("/api/users/*")
-public class UserServlet extends HttpServlet {
-    private DatastoreService datastoreService;
+@WebServlet(urlPatterns = "/api/users/*", asyncSupported = true)
+public class UserServlet extends InstrumentedServlet {
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+
+    private UserRepository userRepository;
+    private PasswordHasher passwordHasher;
     private Gson gson;
+    private UserJsonStreamer userJsonStreamer;
     private SimpleDateFormat dateFormat;
 
+    public UserServlet() {
+        super("export", "cache-stats");
+    }
+
     @Override
     public void init() throws ServletException {
-        datastoreService = DatastoreService.getInstance();
-        gson = new Gson();
+        userRepository = UserRepository.getInstance();
+        passwordHasher = PasswordHasher.getInstance();
+        // Password hashes are read from request bodies but never written to responses
+        gson = new GsonBuilder()
+                .addSerializationExclusionStrategy(new ExclusionStrategy() {
+                    @Override
+                    public boolean shouldSkipField(FieldAttributes field) {
+                        return field.getDeclaringClass() == User.class && field.getName().equals("password");
+                    }
+
+                    @Override
+                    public boolean shouldSkipClass(Class<?> type) {
+                        return false;
+                    }
+                })
+                .create();
+        userJsonStreamer = new UserJsonStreamer(gson);
         dateFormat = new SimpleDateFormat("yyyy-MM-dd");
     }
 
@@ -37,39 +65,41 @@ public class UserServlet extends HttpServlet {
         response.setCharacterEncoding("UTF-8");
 
         String pathInfo = request.getPathInfo();
-        String searchQuery = request.getParameter("search");
+
+        if ("/export".equals(pathInfo)) {
+            exportUsers(response);
+            return;
+        }
+
+        if ("/cache-stats".equals(pathInfo)) {
+            // Hit/miss counters of the by-id user cache
+            Map<String, Object> result = new HashMap<>(UserCache.getInstance().getStats());
+            result.put("success", true);
+            response.getWriter().write(gson.toJson(result));
+            return;
+        }
+
+        if (pathInfo == null || pathInfo.equals("/")) {
+            // Listing and search query the backend, so they run on the user-read pool
+            dispatch(request, response, RequestExecutors.USER_READ, this::listUsers);
+            return;
+        }
 
         try {
-            if (pathInfo == null || pathInfo.equals("/")) {
-                List<User> users;
-                if (searchQuery != null && !searchQuery.isEmpty()) {
-                    users = datastoreService.searchUsers(searchQuery);
-                } else {
-                    users = datastoreService.getAllUsers();
-                }
+            String userId = pathInfo.substring(1);
+            User user = userRepository.getUserById(userId);
 
+            if (user != null) {
                 Map<String, Object> result = new HashMap<>();
                 result.put("success", true);
-                result.put("users", users);
-                result.put("count", users.size());
-
+                result.put("user", user);
                 response.getWriter().write(gson.toJson(result));
             } else {
-                String userId = pathInfo.substring(1);
-                User user = datastoreService.getUserById(userId);
-
-                if (user != null) {
-                    Map<String, Object> result = new HashMap<>();
-                    result.put("success", true);
-                    result.put("user", user);
-                    response.getWriter().write(gson.toJson(result));
-                } else {
-                    response.setStatus(HttpServletResponse.SC_NOT_FOUND);
-                    Map<String, Object> result = new HashMap<>();
-                    result.put("success", false);
-                    result.put("message", "User not found");
-                    response.getWriter().write(gson.toJson(result));
-                }
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                Map<String, Object> result = new HashMap<>();
+                result.put("success", false);
+                result.put("message", "User not found");
+                response.getWriter().write(gson.toJson(result));
             }
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
@@ -80,6 +110,78 @@ public class UserServlet extends HttpServlet {
         }
     }
 
+    private void listUsers(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        String searchQuery = request.getParameter("search");
+
+        try {
+            int pageSize = parsePageSize(request.getParameter("pageSize"));
+            String cursor = request.getParameter("cursor");
+
+            UserPage page;
+            if (searchQuery != null && !searchQuery.isEmpty()) {
+                page = userRepository.searchUsers(searchQuery, pageSize, cursor);
+            } else {
+                page = userRepository.getUsersPage(pageSize, cursor);
+            }
+
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", true);
+            result.put("users", page.getUsers());
+            result.put("count", page.getUsers().size());
+            result.put("nextCursor", page.getNextCursor());
+
+            response.getWriter().write(gson.toJson(result));
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", "Invalid pageSize or cursor");
+            response.getWriter().write(gson.toJson(result));
+        } catch (Exception e) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", "Error: " + e.getMessage());
+            response.getWriter().write(gson.toJson(result));
+        }
+    }
+
+    /**
+     * Stream every user without building the full list or JSON string in memory
+     */
+    private void exportUsers(HttpServletResponse response) throws IOException {
+        try {
+            userJsonStreamer.write(response, userRepository.iterateUsers());
+        } catch (Exception e) {
+            System.err.println("Error exporting users: " + e.getMessage());
+            if (!response.isCommitted()) {
+                response.reset();
+                response.setContentType("application/json");
+                response.setCharacterEncoding("UTF-8");
+                response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                Map<String, Object> result = new HashMap<>();
+                result.put("success", false);
+                result.put("message", "Error: " + e.getMessage());
+                response.getWriter().write(gson.toJson(result));
+            } else {
+                // Headers are already sent; abort so the client sees a truncated body
+                throw new IOException("User export aborted", e);
+            }
+        }
+    }
+
+    private int parsePageSize(String pageSizeParam) {
+        if (pageSizeParam == null || pageSizeParam.isEmpty()) {
+            return DEFAULT_PAGE_SIZE;
+        }
+
+        int pageSize = Integer.parseInt(pageSizeParam);
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("pageSize must be positive");
+        }
+        return Math.min(pageSize, MAX_PAGE_SIZE);
+    }
+
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response)
             throws ServletException, IOException {
@@ -90,19 +192,10 @@ public class UserServlet extends HttpServlet {
         try {
             BufferedReader reader = request.getReader();
             User user = gson.fromJson(reader, User.class);
+            user.setPassword(passwordHasher.hash(user.getPassword()));
 
-            // Check if email already exists
-            User existingUser = datastoreService.getUserByEmail(user.getEmail());
-            if (existingUser != null) {
-                response.setStatus(HttpServletResponse.SC_CONFLICT);
-                Map<String, Object> result = new HashMap<>();
-                result.put("success", false);
-                result.put("message", "Email already exists");
-                response.getWriter().write(gson.toJson(result));
-                return;
-            }
-
-            String userId = datastoreService.createUser(user);
+            // Email uniqueness is enforced by createUser through the UserEmail key
+            String userId = userRepository.createUser(user);
 
             Map<String, Object> result = new HashMap<>();
             result.put("success", true);
@@ -112,6 +205,20 @@ public class UserServlet extends HttpServlet {
             response.setStatus(HttpServletResponse.SC_CREATED);
             response.getWriter().write(gson.toJson(result));
 
+        } catch (PasswordHasher.OverloadedException e) {
+            writeOverloaded(response, e);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", e.getMessage());
+            response.getWriter().write(gson.toJson(result));
+        } catch (IllegalStateException e) {
+            response.setStatus(HttpServletResponse.SC_CONFLICT);
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", e.getMessage());
+            response.getWriter().write(gson.toJson(result));
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             Map<String, Object> result = new HashMap<>();
@@ -143,8 +250,11 @@ public class UserServlet extends HttpServlet {
             String userId = pathInfo.substring(1);
             BufferedReader reader = request.getReader();
             User updatedUser = gson.fromJson(reader, User.class);
+            // Users are sent without their password, so an edit that leaves it out keeps it
+            String password = updatedUser.getPassword();
+            updatedUser.setPassword(password == null || password.isEmpty() ? null : passwordHasher.hash(password));
 
-            boolean success = datastoreService.updateUser(userId, updatedUser);
+            boolean success = userRepository.updateUser(userId, updatedUser);
 
             if (success) {
                 Map<String, Object> result = new HashMap<>();
@@ -159,6 +269,20 @@ public class UserServlet extends HttpServlet {
                 response.getWriter().write(gson.toJson(result));
             }
 
+        } catch (PasswordHasher.OverloadedException e) {
+            writeOverloaded(response, e);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", e.getMessage());
+            response.getWriter().write(gson.toJson(result));
+        } catch (IllegalStateException e) {
+            response.setStatus(HttpServletResponse.SC_CONFLICT);
+            Map<String, Object> result = new HashMap<>();
+            result.put("success", false);
+            result.put("message", e.getMessage());
+            response.getWriter().write(gson.toJson(result));
         } catch (Exception e) {
             response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
             Map<String, Object> result = new HashMap<>();
@@ -188,7 +312,7 @@ public class UserServlet extends HttpServlet {
 
         try {
             String userId = pathInfo.substring(1);
-            boolean success = datastoreService.deleteUser(userId);
+            boolean success = userRepository.deleteUser(userId);
 
             if (success) {
                 Map<String, Object> result = new HashMap<>();
@@ -211,4 +335,14 @@ public class UserServlet extends HttpServlet {
             response.getWriter().write(gson.toJson(result));
         }
     }
-}
\ No newline at end of file
+
+    private void writeOverloaded(HttpServletResponse response, PasswordHasher.OverloadedException e)
+            throws IOException {
+        response.setStatus(429);
+        response.setHeader("Retry-After", "1");
+        Map<String, Object> result = new HashMap<>();
+        result.put("success", false);
+        result.put("message", e.getMessage());
+        response.getWriter().write(gson.toJson(result));
+    }
+}
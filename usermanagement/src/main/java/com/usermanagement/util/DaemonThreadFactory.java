@@ -0,0 +1,25 @@
+package com.usermanagement.util;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Names background threads after their pool and marks them as daemons,
+ * so a pool left running never keeps the JVM alive on shutdown.
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+    private final ThreadFactory defaults = Executors.defaultThreadFactory();
+    private final String prefix;
+
+    public DaemonThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = defaults.newThread(runnable);
+        thread.setName(prefix + "-" + thread.getName());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
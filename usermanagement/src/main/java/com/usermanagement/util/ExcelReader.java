@@ -1,18 +1,222 @@
 package com.usermanagement.util;
 
 import com.usermanagement.model.User;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.usermodel.XSSFComment;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
+import java.io.File;
 import java.io.InputStream;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 
+/**
+ * Reads users from the first sheet of an upload.
+ *
+ * The streaming reader converts cells the way the workbook reader always has:
+ * booleans read as "true"/"false", and a DOB cell that is blank, boolean, an
+ * error or a number without a date format becomes the current date. Only a
+ * text DOB must parse as dd/MM/yyyy, or the row is skipped. One difference
+ * remains: formula cells read as their cached result, not the formula text.
+ */
 public class ExcelReader {
 
+    // Column order in the upload template
+    private static final int NAME_COLUMN = 0;
+    private static final int DOB_COLUMN = 1;
+    private static final int EMAIL_COLUMN = 2;
+    private static final int PASSWORD_COLUMN = 3;
+    private static final int PHONE_COLUMN = 4;
+    private static final int GENDER_COLUMN = 5;
+    private static final int ADDRESS_COLUMN = 6;
+
+    /**
+     * Read all users into a list using the streaming reader
+     */
     public static List<User> readUsersFromExcel(InputStream inputStream) throws Exception {
+        List<User> users = new ArrayList<>();
+        readUsers(inputStream, users::add);
+        return users;
+    }
+
+    /**
+     * Stream valid users from the first sheet to the handler, one row at a time.
+     * Uses POI's event API, so the sheet is parsed with SAX instead of being
+     * built as a workbook in memory. Returns the number of users emitted.
+     */
+    public static int readUsers(InputStream inputStream, Consumer<User> handler) throws Exception {
+        return readRows(inputStream, (user, rowNumber) -> handler.accept(user));
+    }
+
+    /**
+     * Same as readUsers(InputStream, Consumer) but reads the zip straight from disk,
+     * which avoids buffering the compressed file in memory
+     */
+    public static int readUsers(File file, Consumer<User> handler) throws Exception {
+        return readRows(file, (user, rowNumber) -> handler.accept(user));
+    }
+
+    /**
+     * Stream valid users together with their row number as shown in Excel (1-based)
+     */
+    public static int readRows(InputStream inputStream, ObjIntConsumer<User> handler) throws Exception {
+        try (OPCPackage pkg = OPCPackage.open(inputStream)) {
+            return readSheet(pkg, handler);
+        }
+    }
+
+    public static int readRows(File file, ObjIntConsumer<User> handler) throws Exception {
+        try (OPCPackage pkg = OPCPackage.open(file, PackageAccess.READ)) {
+            return readSheet(pkg, handler);
+        }
+    }
+
+    private static int readSheet(OPCPackage pkg, ObjIntConsumer<User> handler) throws Exception {
+        XSSFReader reader = new XSSFReader(pkg);
+        reader.setUseReadOnlySharedStringsTable(true);
+
+        UserRowHandler rowHandler = new UserRowHandler(handler);
+        Iterator<InputStream> sheets = reader.getSheetsData();
+
+        if (sheets.hasNext()) {
+            try (InputStream sheet = sheets.next()) {
+                XMLReader parser = XMLHelper.newXMLReader();
+                parser.setContentHandler(new XSSFSheetXMLHandler(reader.getStylesTable(),
+                        reader.getSharedStringsTable(), rowHandler, new UploadDataFormatter(), false) {
+                    // The contents handler only sees formatted text, so pass on each cell's type
+                    @Override
+                    public void startElement(String uri, String localName, String qName, Attributes attributes)
+                            throws SAXException {
+                        if ("c".equals(localName)) {
+                            rowHandler.cellType = attributes.getValue("t");
+                        }
+                        super.startElement(uri, localName, qName, attributes);
+                    }
+                });
+                parser.parse(new InputSource(sheet));
+            }
+        }
+
+        return rowHandler.emitted;
+    }
+
+    /**
+     * Collects the cells of one row and turns them into a user when the row ends
+     */
+    private static class UserRowHandler implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final ObjIntConsumer<User> handler;
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+        private final String[] values = new String[ADDRESS_COLUMN + 1];
+        private final String[] types = new String[ADDRESS_COLUMN + 1];
+        private boolean rowHasValues;
+        private int emitted;
+        // The t attribute of the cell being parsed: null or "n" for numbers, "b" for booleans
+        private String cellType;
+
+        UserRowHandler(ObjIntConsumer<User> handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            Arrays.fill(values, null);
+            Arrays.fill(types, null);
+            rowHasValues = false;
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int column = new CellReference(cellReference).getCol();
+            if (column < values.length && formattedValue != null) {
+                // POI writes booleans as TRUE/FALSE; the workbook reader used Java's spelling
+                values[column] = "b".equals(cellType) ? formattedValue.toLowerCase() : formattedValue.trim();
+                types[column] = cellType;
+                rowHasValues |= !values[column].isEmpty();
+            }
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            // Skip header row and empty rows
+            if (rowNum == 0 || !rowHasValues) {
+                return;
+            }
+
+            try {
+                User user = new User();
+                user.setName(values[NAME_COLUMN]);
+                if (values[DOB_COLUMN] != null) {
+                    user.setDob(parseDob(values[DOB_COLUMN], types[DOB_COLUMN]));
+                }
+                user.setEmail(values[EMAIL_COLUMN]);
+                user.setPassword(values[PASSWORD_COLUMN]);
+                user.setPhone(values[PHONE_COLUMN]);
+                user.setGender(values[GENDER_COLUMN]);
+                user.setAddress(values[ADDRESS_COLUMN]);
+
+                // Validate user before emitting
+                if (isValidUser(user)) {
+                    handler.accept(user, rowNum + 1);
+                    emitted++;
+                }
+            } catch (ParseException e) {
+                System.err.println("Error processing row " + rowNum + ": " + e.getMessage());
+            }
+        }
+
+        private Date parseDob(String value, String type) throws ParseException {
+            if (value.isEmpty() || "b".equals(type) || "e".equals(type)) {
+                return new Date();
+            }
+            if (type == null || "n".equals(type)) {
+                // Date-formatted numbers arrive as dd/MM/yyyy; any other number means no date
+                try {
+                    return dateFormat.parse(value);
+                } catch (ParseException e) {
+                    return new Date();
+                }
+            }
+            return dateFormat.parse(value);
+        }
+    }
+
+    /**
+     * Formats numeric cells the way the upload expects: dates as dd/MM/yyyy
+     * and other numbers as whole numbers, so phone numbers keep their digits
+     */
+    private static class UploadDataFormatter extends DataFormatter {
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+
+        @Override
+        public String formatRawCellContents(double value, int formatIndex, String formatString) {
+            if (DateUtil.isADateFormat(formatIndex, formatString) && DateUtil.isValidExcelDate(value)) {
+                return dateFormat.format(DateUtil.getJavaDate(value));
+            }
+            return String.valueOf((long) value);
+        }
+    }
+
+    /**
+     * Read users by loading the whole workbook; kept for comparison with the streaming reader
+     */
+    public static List<User> readUsersFromWorkbook(InputStream inputStream) throws Exception {
         List<User> users = new ArrayList<>();
         SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
 
@@ -255,18 +255,4 @@ public class ValidationUtil {
         return sanitized;
     }
 
-
-    public static String hashPassword(String password) {
-        // In production, use BCrypt or Argon2
-        // For now, this is just a placeholder
-        return password; // TODO: Implement proper password hashing
-    }
-
-    /**
-     * Verify password against hash
-     */
-    public static boolean verifyPassword(String password, String hash) {
-        // In production, use BCrypt.checkpw() or similar
-        return password != null && password.equals(hash);
-    }
 }
\ No newline at end of file
@@ -1,3 +1,5 @@
+const UPLOAD_POLL_INTERVAL_MS = 1000;
+
 document.getElementById('uploadForm').addEventListener('submit', async (e) => {
     e.preventDefault();
 
@@ -24,7 +26,7 @@ document.getElementById('uploadForm').addEventListener('submit', async (e) => {
     try {
         // Show progress
         progressDiv.style.display = 'block';
-        progressFill.style.width = '30%';
+        progressFill.style.width = '10%';
         statusDiv.style.display = 'none';
 
         const response = await fetch('/api/upload', {
@@ -32,16 +34,19 @@ document.getElementById('uploadForm').addEventListener('submit', async (e) => {
             body: formData
         });
 
-        progressFill.style.width = '70%';
+        let result = await response.json();
 
-        const result = await response.json();
+        if (result.success) {
+            result = await pollUploadJob(result.jobId, progressFill);
+        }
 
         progressFill.style.width = '100%';
 
-        if (result.success) {
+        if (result.success && result.status === 'COMPLETED') {
             showStatus(
                 `Upload successful! Total: ${result.totalRecords}, ` +
                 `Imported: ${result.successCount}, ` +
+                `Duplicates: ${result.duplicateCount}, ` +
                 `Skipped: ${result.failCount}`,
                 'success'
             );
@@ -63,6 +68,24 @@ document.getElementById('uploadForm').addEventListener('submit', async (e) => {
     }
 });
 
+async function pollUploadJob(jobId, progressFill) {
+    while (true) {
+        const response = await fetch(`/api/upload/jobs/${encodeURIComponent(jobId)}`);
+        const job = await response.json();
+
+        if (!job.success || (job.status !== 'QUEUED' && job.status !== 'RUNNING')) {
+            return job;
+        }
+
+        // Parsing runs ahead of the writes, so show progress as stored rows out of parsed rows
+        const done = job.successCount + job.failCount;
+        const percent = job.parsedCount > 0 ? Math.round(done * 90 / job.parsedCount) : 0;
+        progressFill.style.width = Math.max(10, percent) + '%';
+
+        await new Promise(resolve => setTimeout(resolve, UPLOAD_POLL_INTERVAL_MS));
+    }
+}
+
 function showStatus(message, type) {
     const statusDiv = document.getElementById('uploadStatus');
     statusDiv.textContent = message;
@@ -1,4 +1,8 @@
+const PAGE_SIZE = 50;
+
 let users = [];
+let nextCursor = null;
+let currentSearch = '';
 let userToDelete = null;
 
 // Check authentication on page load
@@ -33,14 +37,35 @@ document.getElementById('logoutBtn').addEventListener('click', async (e) => {
 });
 
 async function loadUsers() {
+    users = [];
+    nextCursor = null;
+    await loadUserPage();
+}
+
+async function loadMoreUsers() {
+    if (!nextCursor) return;
+    await loadUserPage();
+}
+
+async function loadUserPage() {
     try {
-        const response = await fetch('/api/users/');
+        let url = `/api/users/?pageSize=${PAGE_SIZE}`;
+        if (currentSearch) {
+            url += `&search=${encodeURIComponent(currentSearch)}`;
+        }
+        if (nextCursor) {
+            url += `&cursor=${encodeURIComponent(nextCursor)}`;
+        }
+
+        const response = await fetch(url);
         const result = await response.json();
 
         if (result.success) {
-            users = result.users;
+            users = users.concat(result.users);
+            nextCursor = result.nextCursor || null;
             displayUsers(users);
             updateStats(users.length);
+            updateLoadMore();
         } else {
             showError('Failed to load users');
         }
@@ -49,6 +74,10 @@ async function loadUsers() {
     }
 }
 
+function updateLoadMore() {
+    document.getElementById('loadMoreBtn').style.display = nextCursor ? 'inline-block' : 'none';
+}
+
 function displayUsers(userList) {
     const tbody = document.getElementById('usersTableBody');
 
@@ -75,20 +104,8 @@ function updateStats(count) {
 }
 
 function searchUsers() {
-    const searchTerm = document.getElementById('searchInput').value.toLowerCase();
-
-    if (!searchTerm) {
-        displayUsers(users);
-        return;
-    }
-
-    const filtered = users.filter(user =>
-        user.name.toLowerCase().includes(searchTerm) ||
-        user.email.toLowerCase().includes(searchTerm) ||
-        user.phone.includes(searchTerm)
-    );
-
-    displayUsers(filtered);
+    currentSearch = document.getElementById('searchInput').value.trim();
+    loadUsers();
 }
 
 // Allow search on Enter key
@@ -76,8 +76,18 @@ function displayMigratedRecords(records) {
     `).join('');
 }
 
-async function startBulkMigration() {
-    const btn = document.getElementById('migrateBtn');
+const JOB_POLL_INTERVAL_MS = 1000;
+
+function startBulkMigration() {
+    return runMigrationJob('/api/migration/bulk', 'migrateBtn', 'Start Bulk Migration');
+}
+
+function startIncrementalSync() {
+    return runMigrationJob('/api/migration/incremental', 'syncBtn', 'Sync Changes');
+}
+
+async function runMigrationJob(url, buttonId, buttonLabel) {
+    const btn = document.getElementById(buttonId);
     const statusDiv = document.getElementById('migrationStatus');
     const progressDiv = document.getElementById('migrationProgress');
     const progressBar = document.getElementById('progressBar');
@@ -94,47 +104,31 @@ async function startBulkMigration() {
     statusDiv.style.display = 'none';
 
     try {
-        // Animate progress
-        let progress = 0;
-        const progressInterval = setInterval(() => {
-            if (progress < 90) {
-                progress += 10;
-                progressBar.style.width = progress + '%';
-                progressText.textContent = `Migrating users... ${progress}%`;
-            }
-        }, 500);
-
-        const response = await fetch('/api/migration/bulk', {
+        const response = await fetch(url, {
             method: 'POST'
         });
 
-        clearInterval(progressInterval);
-
         const result = await response.json();
 
-        progressBar.style.width = '100%';
-        progressText.textContent = 'Migration complete!';
+        if (!result.success) {
+            throw new Error(result.message);
+        }
 
-        if (result.success) {
-            statusDiv.textContent =
-                `Migration completed! Total: ${result.total}, ` +
-                `Success: ${result.success}, ` +
-                `Failed: ${result.failed}`;
-            statusDiv.className = 'status-message success';
-            statusDiv.style.display = 'block';
-
-            // Reload data
-            setTimeout(() => {
-                loadMigrationStatus();
-                loadMigratedRecords();
-                progressDiv.style.display = 'none';
-            }, 2000);
-        } else {
-            statusDiv.textContent = 'Migration failed: ' + result.message;
-            statusDiv.className = 'status-message error';
-            statusDiv.style.display = 'block';
+        const job = await pollMigrationJob(result.jobId, progressBar, progressText);
+
+        statusDiv.textContent =
+            `Migration ${job.status.toLowerCase()}! Total: ${job.processed}, ` +
+            `Success: ${job.succeeded}, ` +
+            `Failed: ${job.failed}`;
+        statusDiv.className = job.status === 'COMPLETED' ? 'status-message success' : 'status-message error';
+        statusDiv.style.display = 'block';
+
+        // Reload data
+        setTimeout(() => {
+            loadMigrationStatus();
+            loadMigratedRecords();
             progressDiv.style.display = 'none';
-        }
+        }, 2000);
     } catch (error) {
         statusDiv.textContent = 'Error during migration: ' + error.message;
         statusDiv.className = 'status-message error';
@@ -142,7 +136,35 @@ async function startBulkMigration() {
         progressDiv.style.display = 'none';
     } finally {
         btn.disabled = false;
-        btn.textContent = 'Start Bulk Migration';
+        btn.textContent = buttonLabel;
+    }
+}
+
+async function pollMigrationJob(jobId, progressBar, progressText) {
+    while (true) {
+        const response = await fetch(`/api/migration/jobs/${encodeURIComponent(jobId)}`);
+        const job = await response.json();
+
+        if (!job.success) {
+            throw new Error(job.message);
+        }
+
+        if (job.totalUsers !== undefined) {
+            const percent = job.totalUsers > 0 ? Math.min(100, Math.round(job.processed * 100 / job.totalUsers)) : 100;
+            progressBar.style.width = percent + '%';
+        }
+
+        if (job.status !== 'RUNNING') {
+            progressText.textContent = `Migration ${job.status.toLowerCase()}`;
+            return job;
+        }
+
+        const eta = job.etaSeconds !== undefined ? `, ETA ${job.etaSeconds}s` : '';
+        const total = job.totalUsers !== undefined ? `/${job.totalUsers}` : '';
+        progressText.textContent =
+            `Migrating users... ${job.processed}${total} (${job.rowsPerSecond} rows/s${eta})`;
+
+        await new Promise(resolve => setTimeout(resolve, JOB_POLL_INTERVAL_MS));
     }
 }
 
@@ -0,0 +1,103 @@
+package com.usermanagement.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CircuitBreakerTest {
+    private static final long OPEN_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    private long now;
+    private final CircuitBreaker breaker = new CircuitBreaker("test", 3, OPEN_NANOS, () -> now);
+
+    private void fail(int times) {
+        for (int i = 0; i < times; i++) {
+            breaker.acquire();
+            breaker.onFailure();
+        }
+    }
+
+    @Test
+    void opensAfterThresholdAndFailsFast() {
+        fail(2);
+        breaker.acquire();
+
+        breaker.onFailure();
+        assertThrows(CircuitOpenException.class, breaker::acquire);
+
+        now += OPEN_NANOS - 1;
+        assertThrows(CircuitOpenException.class, breaker::acquire);
+    }
+
+    @Test
+    void successResetsTheFailureCount() {
+        fail(2);
+        breaker.acquire();
+        breaker.onSuccess();
+        fail(2);
+
+        assertDoesNotThrow(breaker::acquire);
+    }
+
+    @Test
+    void halfOpenLetsOneTrialThrough() {
+        fail(3);
+        now += OPEN_NANOS;
+
+        assertDoesNotThrow(breaker::acquire);
+        assertThrows(CircuitOpenException.class, breaker::acquire);
+    }
+
+    @Test
+    void successfulTrialClosesTheCircuit() {
+        fail(3);
+        now += OPEN_NANOS;
+
+        breaker.acquire();
+        breaker.onSuccess();
+
+        assertDoesNotThrow(breaker::acquire);
+        assertDoesNotThrow(breaker::acquire);
+    }
+
+    @Test
+    void failedTrialOpensTheCircuitAgain() {
+        fail(3);
+        now += OPEN_NANOS;
+
+        breaker.acquire();
+        breaker.onFailure();
+
+        assertThrows(CircuitOpenException.class, breaker::acquire);
+        now += OPEN_NANOS;
+        assertDoesNotThrow(breaker::acquire);
+    }
+
+    @Test
+    void retrierFailsFastOnceOpenAndIgnoresPermanentErrors() {
+        Retrier retrier = new Retrier(breaker, e -> e instanceof IllegalStateException, millis -> {
+        }, 1, 50, 2000, 0.2);
+        AtomicInteger calls = new AtomicInteger();
+
+        // Rejected requests are answers, not outages
+        for (int i = 0; i < 5; i++) {
+            assertThrows(IllegalArgumentException.class, () -> retrier.call(() -> {
+                calls.incrementAndGet();
+                throw new IllegalArgumentException("invalid");
+            }));
+        }
+
+        for (int i = 0; i < 3; i++) {
+            assertThrows(IllegalStateException.class, () -> retrier.call(() -> {
+                calls.incrementAndGet();
+                throw new IllegalStateException("unavailable");
+            }));
+        }
+
+        assertThrows(CircuitOpenException.class, () -> retrier.call(calls::incrementAndGet));
+        assertEquals(8, calls.get());
+    }
+}
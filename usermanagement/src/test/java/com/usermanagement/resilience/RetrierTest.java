@@ -0,0 +1,104 @@
+package com.usermanagement.resilience;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetrierTest {
+    private final List<Long> sleeps = new ArrayList<>();
+
+    private Retrier retrier(int maxAttempts, double budgetPerCall) {
+        CircuitBreaker neverOpens = new CircuitBreaker("test", Integer.MAX_VALUE, 0, () -> 0);
+        return new Retrier(neverOpens, e -> e instanceof IllegalStateException, sleeps::add,
+                maxAttempts, 50, 2000, budgetPerCall);
+    }
+
+    @Test
+    void retriesTransientFailuresUntilSuccess() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        String result = retrier(4, 0.2).call(() -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("unavailable");
+            }
+            return "ok";
+        });
+
+        assertEquals("ok", result);
+        assertEquals(3, attempts.get());
+        assertEquals(2, sleeps.size());
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(IllegalStateException.class, () -> retrier(4, 0.2).call(() -> {
+            attempts.incrementAndGet();
+            throw new IllegalStateException("unavailable");
+        }));
+        assertEquals(4, attempts.get());
+    }
+
+    @Test
+    void doesNotRetryPermanentFailures() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(IllegalArgumentException.class, () -> retrier(4, 0.2).call(() -> {
+            attempts.incrementAndGet();
+            throw new IllegalArgumentException("invalid");
+        }));
+        assertEquals(1, attempts.get());
+        assertTrue(sleeps.isEmpty());
+    }
+
+    @Test
+    void passesCheckedExceptionsThrough() {
+        IOException thrown = assertThrows(IOException.class, () -> retrier(4, 0.2).<String, IOException>call(() -> {
+            throw new IOException("closed");
+        }));
+        assertEquals("closed", thrown.getMessage());
+    }
+
+    @Test
+    void budgetLimitsRetriesWhenEverythingFails() {
+        Retrier retrier = retrier(100, 0);
+        AtomicInteger attempts = new AtomicInteger();
+
+        for (int i = 0; i < 3; i++) {
+            assertThrows(IllegalStateException.class, () -> retrier.call(() -> {
+                attempts.incrementAndGet();
+                throw new IllegalStateException("unavailable");
+            }));
+        }
+
+        // The saved-up budget of 10 retries goes to the first call; nothing is earned back
+        assertEquals(11 + 1 + 1, attempts.get());
+        assertEquals(10, sleeps.size());
+    }
+
+    @Test
+    void delaysUseDecorrelatedJitterWithinBounds() {
+        Retrier retrier = retrier(10, 10);
+
+        for (int i = 0; i < 20; i++) {
+            sleeps.clear();
+            assertThrows(IllegalStateException.class, () -> retrier.call(() -> {
+                throw new IllegalStateException("unavailable");
+            }));
+            assertEquals(9, sleeps.size());
+
+            long previous = 50;
+            for (long delay : sleeps) {
+                assertTrue(delay >= 50, "delay " + delay + " below the base");
+                assertTrue(delay <= Math.min(2000, previous * 3), "delay " + delay + " after " + previous);
+                previous = delay;
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.usermanagement.service;
+
+import com.google.cloud.datastore.Entity;
+import com.google.cloud.datastore.Key;
+import com.usermanagement.model.User;
+import com.usermanagement.resilience.FaultInjector;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DatastoreServiceRetryTest {
+    private final FakeDatastore fake = newDatabase();
+
+    // The fake does not run queries, so every database starts with its email index complete
+    private static FakeDatastore newDatabase() {
+        FakeDatastore database = new FakeDatastore();
+        UniqueEmail.markBackfilled(database.client(), "User");
+        return database;
+    }
+
+    private static User newUser(String email) {
+        User user = new User();
+        user.setName("Test User");
+        user.setEmail(email);
+        user.setPassword("correct-horse-battery");
+        user.setPhone("5551234567");
+        user.setGender("Other");
+        user.setAddress("1 Main St");
+        user.setDob(new Date(0));
+        return user;
+    }
+
+    private Key userKey(String id) {
+        return fake.keyFactory("User").newKey(Long.parseLong(id));
+    }
+
+    private Entity emailEntity(String email) {
+        return fake.get(fake.keyFactory(UniqueEmail.KIND).newKey(email));
+    }
+
+    @Test
+    void createUserRetriesInjectedCommitFailures() {
+        AtomicInteger failures = new AtomicInteger(2);
+        DatastoreService service = new DatastoreService(FaultInjector.datastore(fake.client(),
+                request -> request.equals("commit") && failures.getAndDecrement() > 0));
+
+        String id = service.createUser(newUser("retry@example.com"));
+
+        assertEquals("retry@example.com", fake.get(userKey(id)).getString("email"));
+        assertEquals(userKey(id), UniqueEmail.userKeyOf(emailEntity("retry@example.com")));
+        assertEquals(1, fake.count("User"));
+    }
+
+    @Test
+    void createUserSucceedsAfterLostCommitResponse() {
+        DatastoreService service = new DatastoreService(fake.client());
+        fake.loseNextCommitResponse();
+
+        String id = service.createUser(newUser("lost@example.com"));
+
+        assertNotNull(fake.get(userKey(id)));
+        assertEquals(userKey(id), UniqueEmail.userKeyOf(emailEntity("lost@example.com")));
+        assertEquals(1, fake.count("User"));
+    }
+
+    @Test
+    void createUserStillRejectsTakenEmail() {
+        DatastoreService service = new DatastoreService(fake.client());
+        service.createUser(newUser("taken@example.com"));
+
+        assertThrows(IllegalStateException.class, () -> service.createUser(newUser("taken@example.com")));
+        assertEquals(1, fake.count("User"));
+    }
+
+    @Test
+    void createBatchCountsRowsStoredBeforeLostCommitResponse() {
+        DatastoreService service = new DatastoreService(fake.client());
+        fake.loseNextCommitResponse();
+
+        EmailIndex taken = service.createBatch(Arrays.asList(
+                newUser("a@example.com"), newUser("b@example.com"), newUser("c@example.com")));
+
+        assertEquals(0, taken.size());
+        assertEquals(3, fake.count("User"));
+        assertEquals(3, fake.count(UniqueEmail.KIND));
+    }
+
+    @Test
+    void servicesOnSeparateDatabasesAllocateTheirOwnKeys() {
+        new DatastoreService(newDatabase().client()).createUser(newUser("other@example.com"));
+
+        String id = new DatastoreService(fake.client()).createUser(newUser("mine@example.com"));
+
+        assertNotNull(fake.get(userKey(id)));
+    }
+}
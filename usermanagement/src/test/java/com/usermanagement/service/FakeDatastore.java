@@ -0,0 +1,197 @@
+package com.usermanagement.service;
+
+import com.google.cloud.NoCredentials;
+import com.google.cloud.datastore.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory Datastore covering the key lookups, puts, deletes, ID allocation
+ * and transactions that user writes make. Transactions buffer their writes and
+ * apply them on commit without conflict checks. Each instance is its own project,
+ * so shared allocators and counters never leak between tests.
+ */
+class FakeDatastore implements InvocationHandler {
+    private static final AtomicInteger PROJECTS = new AtomicInteger();
+
+    private final String projectId = "fake-" + PROJECTS.incrementAndGet();
+    private final DatastoreOptions options = DatastoreOptions.newBuilder()
+            .setProjectId(projectId)
+            .setCredentials(NoCredentials.getInstance())
+            .build();
+    private final Map<Key, Entity> entities = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(1000);
+    private final AtomicBoolean loseCommitResponse = new AtomicBoolean();
+
+    Datastore client() {
+        return (Datastore) Proxy.newProxyInstance(Datastore.class.getClassLoader(),
+                new Class<?>[]{Datastore.class}, this);
+    }
+
+    KeyFactory keyFactory(String kind) {
+        return new KeyFactory(projectId).setKind(kind);
+    }
+
+    Entity get(Key key) {
+        return entities.get(key);
+    }
+
+    long count(String kind) {
+        return entities.keySet().stream().filter(key -> key.getKind().equals(kind)).count();
+    }
+
+    /**
+     * Apply the next commit and then fail it, as when the response is lost on the way back
+     */
+    void loseNextCommitResponse() {
+        loseCommitResponse.set(true);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "getOptions":
+                return options;
+            case "newKeyFactory":
+                return new KeyFactory(projectId);
+            case "allocateId":
+                return allocate(args[0]);
+            case "newTransaction":
+                return new FakeTransaction().client();
+            case "get":
+            case "fetch":
+                return read(method, args[0]);
+            case "put":
+                Map<Key, Entity> written = entitiesOf(args[0]);
+                entities.putAll(written);
+                return result(method, written);
+            case "delete":
+                for (Key key : keysOf(args[0])) {
+                    entities.remove(key);
+                }
+                return null;
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "toString":
+                return "FakeDatastore(" + projectId + ")";
+            default:
+                throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private Object allocate(Object arg) {
+        if (arg instanceof IncompleteKey) {
+            return Key.newBuilder((IncompleteKey) arg, nextId.getAndIncrement()).build();
+        }
+
+        List<Key> keys = new ArrayList<>();
+        for (IncompleteKey key : (IncompleteKey[]) arg) {
+            keys.add(Key.newBuilder(key, nextId.getAndIncrement()).build());
+        }
+        return keys;
+    }
+
+    // get(Key) returns the entity, get(Key...) an iterator over the found ones
+    // and fetch(Key...) a list with null for each missing key
+    private Object read(Method method, Object arg) {
+        if (arg instanceof Key) {
+            return entities.get(arg);
+        }
+
+        List<Entity> found = new ArrayList<>();
+        for (Key key : keysOf(arg)) {
+            Entity entity = entities.get(key);
+            if (entity != null || method.getName().equals("fetch")) {
+                found.add(entity);
+            }
+        }
+        return method.getReturnType() == Iterator.class ? found.iterator() : found;
+    }
+
+    private static Map<Key, Entity> entitiesOf(Object arg) {
+        Map<Key, Entity> written = new LinkedHashMap<>();
+        Object[] all = arg instanceof Object[] ? (Object[]) arg : new Object[]{arg};
+        for (Object entity : all) {
+            written.put(((Entity) entity).getKey(), (Entity) entity);
+        }
+        return written;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Iterable<Key> keysOf(Object arg) {
+        if (arg instanceof Key) {
+            return Collections.singletonList((Key) arg);
+        }
+        return arg instanceof Key[] ? Arrays.asList((Key[]) arg) : (Iterable<Key>) arg;
+    }
+
+    private static Object result(Method method, Map<Key, Entity> written) {
+        if (method.getReturnType() == Entity.class) {
+            return written.values().iterator().next();
+        }
+        return method.getReturnType() == List.class ? new ArrayList<>(written.values()) : null;
+    }
+
+    private class FakeTransaction implements InvocationHandler {
+        private final Map<Key, Entity> puts = new LinkedHashMap<>();
+        private final Set<Key> deletes = new LinkedHashSet<>();
+        private boolean active = true;
+
+        Transaction client() {
+            return (Transaction) Proxy.newProxyInstance(Transaction.class.getClassLoader(),
+                    new Class<?>[]{Transaction.class}, this);
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "get":
+                case "fetch":
+                    return read(method, args[0]);
+                case "put":
+                    Map<Key, Entity> written = entitiesOf(args[0]);
+                    puts.putAll(written);
+                    deletes.removeAll(written.keySet());
+                    return result(method, written);
+                case "delete":
+                    for (Key key : keysOf(args[0])) {
+                        puts.remove(key);
+                        deletes.add(key);
+                    }
+                    return null;
+                case "commit":
+                    active = false;
+                    synchronized (FakeDatastore.this) {
+                        deletes.forEach(entities::remove);
+                        entities.putAll(puts);
+                    }
+                    if (loseCommitResponse.compareAndSet(true, false)) {
+                        throw new DatastoreException(4, "Deadline exceeded after commit", "DEADLINE_EXCEEDED");
+                    }
+                    return null;
+                case "rollback":
+                    active = false;
+                    return null;
+                case "isActive":
+                    return active;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "FakeTransaction(" + projectId + ")";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+}